@@ -0,0 +1,194 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/*
+ *  Asynchronous facade over CoCo_batch.line().
+ *  classifyAsync() hands the classification to an executor and returns
+ *  at once with a CompletableFuture, so a Swing listener or a caller
+ *  doing its own I/O never waits for the model; not even for loading
+ *  it, which happens on the executor on the first call.  If the model
+ *  can not be loaded the future completes exceptionally with an
+ *  UncheckedIOException rather than the process exiting.  Results come
+ *  from line(), so they go through the shared model and its result
+ *  cache and follow model reloads.
+ *  classifyAllAsync() classifies a list in slices of BULK_SLICE
+ *  complaints, one executor task per slice, and completes with the
+ *  results in list order.
+ *  The executor is a pool of daemon threads, one per processor, unless
+ *  set_executor() supplies another one.  use_virtual_threads() switches
+ *  to a virtual thread per task where the JVM has them (Java 21, or 19
+ *  and 20 with preview features enabled); it is looked up by
+ *  reflection so the code still builds and runs on older JVMs, where
+ *  the call returns false and the executor stays as it was.
+ */
+/**
+ *  CompletableFuture based classification API.
+ */
+public final class CoCo_async {
+
+	private static final int BULK_SLICE = 256;
+
+	private static volatile Executor executor = null;
+
+	private CoCo_async() {
+	}
+
+	/**
+	 *  Classifies an interactive complaint string on the executor.
+	 *
+	 * @param  complaint_string  free-text complaint
+	 * @return                   the syndrome string, when it is ready
+	 */
+	public static CompletableFuture<String> classifyAsync(
+		final String complaint_string) {
+		return CompletableFuture.supplyAsync(new Supplier<String>() {
+			public String get() {
+				load();
+
+				return CoCo_batch.line(complaint_string);
+			}
+		}, executor());
+	}
+
+	/**
+	 *  Classifies a list of interactive complaint strings on the
+	 *  executor.
+	 *
+	 * @param  complaint_strings  free-text complaints
+	 * @return                    the syndrome strings in list order, when
+	 *      they are all ready
+	 */
+	public static CompletableFuture<List<String>> classifyAllAsync(
+		List<String> complaint_strings) {
+		final String complaint[] = complaint_strings.toArray(new String[0]);
+		final String syndrome[] = new String[complaint.length];
+		List<CompletableFuture<Void>> slices =
+			new ArrayList<CompletableFuture<Void>>();
+
+		for (int start = 0; start < complaint.length; start += BULK_SLICE) {
+			final int first = start;
+			final int end = Math.min(start + BULK_SLICE, complaint.length);
+
+			slices.add(CompletableFuture.runAsync(new Runnable() {
+				public void run() {
+					load();
+
+					for (int loop = first; loop < end; loop++) {
+						syndrome[loop] = CoCo_batch.line(complaint[loop]);
+					}
+				}
+			}, executor()));
+		}
+
+		return CompletableFuture
+			.allOf(slices.toArray(new CompletableFuture<?>[0]))
+			.thenApply(new Function<Void, List<String>>() {
+				public List<String> apply(Void done) {
+					return Arrays.asList(syndrome);
+				}
+			});
+	}
+
+	/**
+	 *  Replaces the executor.  Work already handed to the old executor
+	 *  finishes there; shutting it down is up to whoever created it.
+	 *
+	 * @param  new_executor  the executor to classify on
+	 */
+	public static void set_executor(Executor new_executor) {
+		executor = new_executor;
+	}
+
+	/**
+	 *  Classifies on a new virtual thread per task, if the JVM has them.
+	 *
+	 * @return    true if virtual threads are now used
+	 */
+	public static boolean use_virtual_threads() {
+		try {
+			executor =
+				(Executor) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+
+			return true;
+		} catch (Exception e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/*
+	 *  Make sure the shared model is loaded before line() asks for it,
+	 *  so a file that can not be read completes the future exceptionally
+	 *  instead of exiting the process from an executor thread.
+	 */
+	private static void load() {
+		try {
+			CoCo_batch.shared_model();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/*
+	 *  Return the executor, creating the default pool on first use.
+	 */
+	private static Executor executor() {
+		Executor current = executor;
+
+		if (current == null) {
+			synchronized (CoCo_async.class) {
+				current = executor;
+
+				if (current == null) {
+					final AtomicInteger count = new AtomicInteger();
+
+					current =
+						Executors.newFixedThreadPool(
+							Runtime.getRuntime().availableProcessors(),
+							new ThreadFactory() {
+								public Thread newThread(Runnable task) {
+									Thread thread =
+										new Thread(
+											task,
+											"CoCo async " + count.getAndIncrement());
+
+									thread.setDaemon(true);
+
+									return thread;
+								}
+							});
+					executor = current;
+				}
+			}
+		}
+
+		return current;
+	}
+}
@@ -188,8 +188,8 @@
 package src.java.api;
 
 import java.io.*;
+import java.nio.charset.*;
 import java.util.*;
-import java.util.regex.*;
 
 /**
  *  Description of the Class
@@ -201,7 +201,6 @@ public class CoCo_batch {
 	/*
 	 *  Set variables that specify the functionality of the classifier.
 	 */
-	public static boolean isLineInit = false;
 	static double weight_1_tuple = 1.0;
 	static double weight_2_tuple = 0.0;
 	static double threshold = -1.0;
@@ -212,29 +211,154 @@ public class CoCo_batch {
 	static String complaint_string = null;
 	static String complaint_file_name = "cc.txt";
 	static String classification_file_name = "prod.txt";
-	static int syndrome_count = 0;
-	static double prior_prob[] = null;
-	static double prob_1_tuple[][] = null;
-	static double prob_2_tuple[][] = null;
-	static String wordpair_lookup[] = null;
-	static Hashtable words = new Hashtable();
-	static Hashtable wordpairs = new Hashtable();
-	static String syndrome_lookup[] = null;
-	static Hashtable syndromes = new Hashtable();
+	static String model_file_name = null;
+	static int threads = Runtime.getRuntime().availableProcessors();
+	static boolean mapped_io = false;
+	static boolean dedup = false;
+	static boolean gzip_output = false;
+	static boolean posterior = false;
+	static String input_directory = null;
+	static String glob = "*";
+	static String output_directory = null;
+
+	/*
+	 *  Memory budget of out-of-core training in bytes; 0 trains in memory.
+	 */
+	static long train_memory = 0;
+
+	/*
+	 *  Number of folds of evaluation mode.
+	 */
+	static int folds = 10;
+
+	/*
+	 *  Suffix of the count snapshot train() writes next to the
+	 *  probability file and update() reads.
+	 */
+	static final String COUNTS_SUFFIX = ".counts";
+
+	/*
+	 *  The one model of the process, shared by line mode, batch mode and
+	 *  the GUI.  The holder publishes it with a single reference swap, so
+	 *  it can be reloaded while classifications are running (see watch()).
+	 */
+	private static final CoCo_model_holder model = new CoCo_model_holder();
+
+	/*
+	 *  Results of line(), emptied whenever the shared model changes.
+	 */
+	static int line_cache_size = 10000;
+	private static volatile CoCo_line_cache line_cache = null;
+	private static boolean isFilepathInit = false;
 
 	public CoCo_batch() {
-		if (!isLineInit) {
-			initFilepath();
-			lineInit(prob_file_name);
-			isLineInit = true;
+		model();
+	}
+
+	/*
+	 *  Return the shared model, loading the default probability file on
+	 *  first use.  Only the first caller pays for the load; everybody
+	 *  else reads the volatile field without locking.
+	 */
+	/**
+	 *  Description of the Method
+	 *
+	 * @return    the shared model
+	 */
+	public static CoCo_model model() {
+		try {
+			return shared_model();
+		} catch (IOException e) {
+			System.out.print(e.getMessage() + "\n");
+			System.out.print(
+				"ERROR! Can not read file: " + prob_file_name + "\n\n");
+			System.exit(0);
+
+			return null;
+		}
+	}
+
+	/*
+	 *  model() for callers that must not exit, such as the executor
+	 *  threads of CoCo_async: a default probability file that can not be
+	 *  read is reported to the caller.
+	 */
+	static CoCo_model shared_model() throws IOException {
+		CoCo_model m = model.get();
+
+		if (m == null) {
+			synchronized (CoCo_batch.class) {
+				m = model.get();
+
+				if (m == null) {
+					initFilepath();
+					m = read_model(prob_file_name);
+					model.set(prob_file_name, m);
+				}
+			}
+		}
+
+		return m;
+	}
+
+	/*
+	 *  Return the shared model if it was loaded from 'prob_file_name',
+	 *  otherwise load that file and make it the shared model.
+	 */
+	/**
+	 *  Description of the Method
+	 *
+	 * @param  prob_file_name  probability or compiled model file
+	 * @return                 the shared model
+	 */
+	public static synchronized CoCo_model model(String prob_file_name) {
+		CoCo_model m = model.get();
+
+		if (m == null || !prob_file_name.equals(model.source())) {
+			m = lineInit(prob_file_name);
 		}
+
+		return m;
 	}
-	private static void initFilepath(){
+
+	/*
+	 *  Reload the shared model whenever its probability file changes.
+	 *  A retrained file is picked up without a restart; classifications
+	 *  already running finish on the model they started with.
+	 */
+	/**
+	 *  Description of the Method
+	 *
+	 * @return    the holder of the shared model
+	 */
+	public static CoCo_model_holder watch() {
+		model();
+		model.watch();
+
+		return model;
+	}
+
+	/*
+	 *  Make the file names relative to the api directory.  This is done
+	 *  once, whether main() or the first model() call gets here first.
+	 */
+	private static synchronized void initFilepath(){
+		if (isFilepathInit) {
+			return;
+		}
+
+		isFilepathInit = true;
+
 		File dir1 = new File(".");
 		String FilePath = "";
 		try
 		{
-			FilePath  = dir1.getCanonicalPath() + "\\src\\jav\\src\\java\\api\\";
+			FilePath =
+				new File(
+					dir1.getCanonicalFile(),
+					"src/jav/src/java/api".replace('/', File.separatorChar))
+					.getPath()
+					+ File.separator;
 			 prob_file_name = FilePath + prob_file_name;			
 			 complaint_file_name = FilePath + complaint_file_name;
 			 classification_file_name = FilePath + classification_file_name;
@@ -257,8 +381,12 @@ public class CoCo_batch {
 		 *  be set to 1.  If not, an error message is printed.
 		 */
 		boolean isTRAIN = false;
+		boolean isUPDATE = false;
+		boolean isEVALUATE = false;
 		boolean isBATCH = false;
 		boolean isLINE = false;
+		boolean isCOMPILE = false;
+		boolean isSTREAM = false;
 
 		/*
 		 *  Variables to hold command line arguments.
@@ -268,16 +396,34 @@ public class CoCo_batch {
 		 */
 		if (args.length < 1) {
 			System.out.println(
-				"usage: CoCo_btach [-b |-t|-l] [-Pprob_file_name] [-Ccomplaint_file_name] [-Sclassification_file_name]] [ -Rtrain_file_name : train_file_name] ");
+				"usage: CoCo_btach [-b |-t|-u|-e|-l|-m] [-Pprob_file_name] [-Ccomplaint_file_name] [-Sclassification_file_name]] [ -Rtrain_file_name : train_file_name] [-Omodel_file_name] [-Wthreads] [-mmap] [-dedup] [-gzip] [-posterior] [--input-dir=directory [--glob=pattern] --output-dir=directory] [--train-memory=megabytes] [--folds=n] [--weight1=w] [--weight2=w] [--threshold=t] [--default-prob=p] [--stream] ");
 			System.out.println("\t -b : batch mode ");
 			System.out.println("\t -t : train mode. ");
+			System.out.println("\t -u : update mode: fold train_file_name into prob_file_name and its count snapshot. ");
+			System.out.println("\t -e : evaluation mode: k-fold cross-validation on train_file_name. ");
 			System.out.println("\t -l : line mode. ");
+			System.out.println("\t -m : compile prob_file_name into model_file_name. ");
+			System.out.println("\t --stream : classify standard input to standard output. ");
 			System.out.println("\t -Pprob_file_name : prob_file_name.");
 			System.out.println(
 				"\t -Ccomplaint_file_name : complaint_file_name");
 			System.out.println(
 				"\t -Sclassification_file_name : classification_file_name");
 			System.out.println("\t -Rtrain_file_name : train_file_name ");
+			System.out.println("\t -Omodel_file_name : model_file_name ");
+			System.out.println("\t -Wthreads : batch classifier and training threads ");
+			System.out.println("\t -mmap : batch mode with memory-mapped byte-level I/O ");
+			System.out.println("\t -dedup : batch mode classifying each distinct complaint once ");
+			System.out.println("\t -gzip : gzip-compress the classification file(s) ");
+			System.out.println("\t -posterior : batch mode writing every posterior probability to a columnar binary file ");
+			System.out.println("\t --input-dir=directory : batch mode over the files of a directory ");
+			System.out.println("\t --glob=pattern : files of the input directory to classify (default *) ");
+			System.out.println("\t --output-dir=directory : directory for the classification files and summary ");
+			System.out.println("\t --train-memory=megabytes : train mode within a memory budget, spilling sorted counts to disk ");
+			System.out.println("\t --folds=n : evaluation folds (default 10) ");
+			System.out.println("\t --weight1=w --weight2=w : unigram and bigram weights (default 1 and 0) ");
+			System.out.println("\t --threshold=t : classification threshold; < 0 picks the most probable syndrome (default -1) ");
+			System.out.println("\t --default-prob=p : probability of an unseen word (default 0.0000001) ");
 			System.exit(0);
 		}
 		initFilepath();
@@ -288,36 +434,84 @@ public class CoCo_batch {
 			} else if (args[i].equals("-t")) {
 				isTRAIN = true;
 				//logger.setLevel(Level.WARNING);
+			} else if (args[i].equals("-u")) {
+				isUPDATE = true;
+			} else if (args[i].equals("-e")) {
+				isEVALUATE = true;
 			} else if (args[i].equals("-l")) {
 				isLINE = true;
 				//logger.setLevel(Level.WARNING);
-			}
-
-			if (args[i].startsWith("-P") || args[i].startsWith("-p")) {
+			} else if (args[i].equals("-m")) {
+				isCOMPILE = true;
+			} else if (args[i].equals("-mmap")) {
+				mapped_io = true;
+			} else if (args[i].equals("-dedup")) {
+				dedup = true;
+			} else if (args[i].equals("-gzip")) {
+				gzip_output = true;
+			} else if (args[i].equals("-posterior")) {
+				posterior = true;
+			} else if (args[i].equals("--stream")) {
+				isSTREAM = true;
+			} else if (args[i].startsWith("--input-dir=")) {
+				input_directory = args[i].substring("--input-dir=".length());
+			} else if (args[i].startsWith("--glob=")) {
+				glob = args[i].substring("--glob=".length());
+			} else if (args[i].startsWith("--output-dir=")) {
+				output_directory = args[i].substring("--output-dir=".length());
+			} else if (args[i].startsWith("--train-memory=")) {
+				train_memory =
+					Long.parseLong(args[i].substring("--train-memory=".length())) << 20;
+			} else if (args[i].startsWith("--folds=")) {
+				folds = Integer.parseInt(args[i].substring("--folds=".length()));
+			} else if (args[i].startsWith("--weight1=")) {
+				weight_1_tuple =
+					Double.parseDouble(args[i].substring("--weight1=".length()));
+			} else if (args[i].startsWith("--weight2=")) {
+				weight_2_tuple =
+					Double.parseDouble(args[i].substring("--weight2=".length()));
+			} else if (args[i].startsWith("--threshold=")) {
+				threshold = Double.parseDouble(args[i].substring("--threshold=".length()));
+			} else if (args[i].startsWith("--default-prob=")) {
+				default_prob =
+					Double.parseDouble(args[i].substring("--default-prob=".length()));
+			} else if (args[i].startsWith("-P") || args[i].startsWith("-p")) {
+				/*
+				 *  Only after the word flags, so -posterior is not read as
+				 *  -p osterior.
+				 */
 				if (args[i].length() > 2) {
 					prob_file_name = args[i].substring(2);
 				}
-			}
-
-			if (args[i].length() > 2
+			} else if (args[i].length() > 2
 				&& (args[i].startsWith("-c") || args[i].startsWith("-C"))) {
 				complaint_file_name = args[i].substring(2);
 				complaint_string = args[i].substring(2);
-			}
-			if (args[i].length() > 2
+			} else if (args[i].length() > 2
 				&& (args[i].startsWith("-S") || args[i].startsWith("-s"))) {
 				classification_file_name = args[i].substring(2);
 
-			}
-			if (args[i].length() > 2
+			} else if (args[i].length() > 2
 				&& (args[i].startsWith("-r") || args[i].startsWith("-R"))) {
 				train_file_name = args[i].substring(2);
 
+			} else if (args[i].length() > 2
+				&& (args[i].startsWith("-o") || args[i].startsWith("-O"))) {
+				model_file_name = args[i].substring(2);
+			} else if (args[i].length() > 2
+				&& (args[i].startsWith("-w") || args[i].startsWith("-W"))) {
+				threads = Integer.parseInt(args[i].substring(2));
 			}
 		}
-		if (!(isTRAIN || isBATCH || isLINE)) {
+		if (!(isTRAIN
+			|| isUPDATE
+			|| isEVALUATE
+			|| isBATCH
+			|| isLINE
+			|| isCOMPILE
+			|| isSTREAM)) {
 			System.out.print(
-				"\nCoCo: You have to choose a mode (TRAIN/BATCH/LINE)\n\n");
+				"\nCoCo: You have to choose a mode (TRAIN/UPDATE/EVALUATE/BATCH/LINE/COMPILE/STREAM)\n\n");
 			return;
 		}
 
@@ -331,6 +525,20 @@ public class CoCo_batch {
 				return;
 			}
 			train();
+		} else if (isUPDATE) {
+			if (prob_file_name == null || train_file_name == null) {
+				System.out.print(
+					"\nUSAGE: CoCo_batch -u -R<new training file> -P<probability file>\n\n");
+				return;
+			}
+			update();
+		} else if (isEVALUATE) {
+			if (train_file_name == null || folds < 2) {
+				System.out.print(
+					"\nUSAGE: CoCo_batch -e -R<labelled file> [--folds=<2 or more>]\n\n");
+				return;
+			}
+			evaluate();
 		} else if (isBATCH) {
 			if (prob_file_name == null || classification_file_name == null) {
 				System.out.print(
@@ -338,6 +546,17 @@ public class CoCo_batch {
 
 				return;
 			}
+			if (input_directory != null) {
+				if (output_directory == null) {
+					System.out.print(
+						"\nUSAGE: CoCo_batch -b --input-dir=<directory> [--glob=<pattern>] --output-dir=<directory>\n\n");
+
+					return;
+				}
+				directory();
+
+				return;
+			}
 			batch();
 		} else if (isLINE) {
 			if (args.length <= 1) {
@@ -354,6 +573,16 @@ public class CoCo_batch {
 			System.out.println(CoCo_batch.line(complaint_string));
 			//System.out.println(CoCo.line("bleeding"));
 			//System.out.println(CoCo.line("cough"));
+		} else if (isCOMPILE) {
+			if (model_file_name == null) {
+				System.out.print(
+					"\nUSAGE: CoCo_batch -m -P<probability file> -O<model file>\n\n");
+
+				return;
+			}
+			compile();
+		} else if (isSTREAM) {
+			stream();
 		}
 	}
 
@@ -387,779 +616,732 @@ public class CoCo_batch {
 	 */
 	/*
 	 *  Train the classifier based on preclassified chief-complaint strings.
-	 *  0. Read in the training file and count the number of strings,
-	 *  sydromes, words, and word pairs.
-	 *  1. Read in the training file and store the strings by syndrome.
-	 *  2. Compute 1-tuple and 2-tuple probabilities for each syndrome.
-	 *  3. Write out the probabilities.
-	 *  4. Quit.
+	 *  0. Read the training file once, counting syndromes, words and word
+	 *  pairs per syndrome as the lines go by (see CoCo_trainer); with
+	 *  more than one thread, ranges of the file are counted in parallel
+	 *  and the counts merged (see CoCo_parallel_trainer).
+	 *  1. Compute 1-tuple and 2-tuple probabilities for each syndrome.
+	 *  2. Write out the probabilities, and the counts behind them as a
+	 *  count snapshot for update().
+	 *  With a train_memory budget the counts go through sorted runs on
+	 *  disk instead (see CoCo_external_trainer).
 	 */
 	/**
 	 *  Description of the Method
 	 */
 	public static void train() {
-		//if(TRAIN == 1)
-
-		int complaint_count = 0;
-		int syndrome_count = 0;
-		int word_count = 0;
-		int wordpair_count = 0;
-		int total_train = 0;
-		int prob_1_tuple_count = 0;
-		int prob_2_tuple_count = 0;
-		int count_train[] = null;
-		int count_1_tuple[][] = null;
-		int count_2_tuple[][] = null;
-		int total_1_tuple[] = null;
-		int total_2_tuple[] = null;
-		int complaint_train[][] = null;
-		double prior_prob[] = null;
-		double prob_1_tuple[][] = null;
-		double prob_2_tuple[][] = null;
-		String complaint_lookup[] = null;
-		String syndrome_lookup[] = null;
-		String word_lookup[] = null;
-		String wordpair_lookup[] = null;
-		Hashtable complaints = new Hashtable();
-		Hashtable syndromes = new Hashtable();
-		Hashtable words = new Hashtable();
-		Hashtable wordpairs = new Hashtable();
-		int loop;
-		int loop1;
-		int loop2;
-		int loop3;
+		CoCo_trainer trainer = null;
 
-		System.out.print("Reading complaint training file...\n\n");
+		if (train_memory > 0) {
+			external();
 
-		try {
-			String train_file_line = null;
-			System.out.println("file name inside train()"+train_file_name);
-			BufferedReader train_file =
-				new BufferedReader(
-					new InputStreamReader(
-						new FileInputStream(train_file_name)));
-            
-			while ((train_file_line = train_file.readLine()) != null) {
-				String train_file_token[] = split(train_file_line, ',');
-
-				if (train_file_token.length == 0) {
-					System.out.print(
-						"WARNING: Blank line found in "
-							+ train_file_name
-							+ " (skipping)\n\n");
-				} else if (train_file_token.length == 1) {
-					System.out.print(
-						"WARNING: No syndromes indicated for \""
-							+ train_file_token[0]
-							+ "\" in "
-							+ train_file_name
-							+ " (skipping)\n\n");
-				} else {
-					String complaint_token[] =
-						split_whitespace(train_file_token[0]);
-					Integer complaint_index =
-						(Integer) complaints.get(train_file_token[0]);
-
-					if (complaint_index == null) {
-						complaints.put(
-							train_file_token[0],
-							new Integer(complaint_count++));
-					}
+			return;
+		}
 
-					for (loop = 1; loop < train_file_token.length; loop++) {
-						Integer syndrome_index =
-							(Integer) syndromes.get(train_file_token[loop]);
+		System.out.print("Reading complaint training file...\n\n");
 
-						if (syndrome_index == null) {
-							syndromes.put(
-								train_file_token[loop],
-								new Integer(syndrome_count++));
-						}
-					}
+		try {
+			if (threads > 1) {
+				trainer = CoCo_parallel_trainer.read(train_file_name, threads);
+			} else {
+				trainer = new CoCo_trainer();
+				trainer.read(train_file_name);
+			}
+		} catch (Exception e) {
+			System.out.print(
+				"ERROR! Can not read file: " + train_file_name + "\n\n");
+			System.exit(0);
+		}
 
-					for (loop = 0; loop < complaint_token.length; loop++) {
-						Integer word_index =
-							(Integer) words.get(complaint_token[loop]);
+		System.out.print(trainer.warnings());
+		System.out.print(
+			"  Found "
+				+ trainer.total_train()
+				+ " strings and "
+				+ trainer.syndrome_count()
+				+ " syndromes\n\n");
 
-						if (word_index == null) {
-							words.put(
-								complaint_token[loop],
-								new Integer(word_count++));
-						}
-					}
+		write(trainer);
+	}
 
-					for (loop = 0; loop < complaint_token.length - 1; loop++) {
-						String wordpair =
-							complaint_token[loop]
-								+ ","
-								+ complaint_token[loop
-								+ 1];
-						Integer wordpair_index =
-							(Integer) wordpairs.get(wordpair);
-
-						if (wordpair_index == null) {
-							wordpairs.put(
-								wordpair,
-								new Integer(wordpair_count++));
-						}
-					}
+	/*
+	 *  Train within the train_memory budget.  The lines are read on one
+	 *  thread.  No count snapshot can be written, so a snapshot left by an
+	 *  earlier run is removed rather than left to disagree with the new
+	 *  probability file.
+	 */
+	private static void external() {
+		CoCo_external_trainer trainer =
+			new CoCo_external_trainer(prob_file_name, train_memory);
 
-					total_train++;
-				}
-			}
+		System.out.print("Reading complaint training file...\n\n");
 
-			train_file.close();
+		try {
+			trainer.read(train_file_name);
 		} catch (Exception e) {
 			System.out.print(
 				"ERROR! Can not read file: " + train_file_name + "\n\n");
 			System.exit(0);
 		}
 
-		complaint_lookup = new String[complaint_count];
-		syndrome_lookup = new String[syndrome_count];
-		word_lookup = new String[word_count];
-		wordpair_lookup = new String[wordpair_count];
+		System.out.print(
+			"  Found "
+				+ trainer.total_train()
+				+ " strings and "
+				+ trainer.syndrome_count()
+				+ " syndromes\n\n");
 
-		for (Enumeration e = complaints.keys(); e.hasMoreElements();) {
-			String next_key = (String) e.nextElement();
+		System.out.print("Computing probabilities...\n\n");
+
+		System.out.print("Writing probability output file...\n\n");
 
-			complaint_lookup[((Integer) complaints.get(next_key)).intValue()] =
-				next_key;
+		try {
+			trainer.write();
+		} catch (Exception e) {
+			System.out.print(
+				"ERROR! Can not write file: " + prob_file_name + "\n\n");
+			System.exit(0);
 		}
 
-		for (Enumeration e = syndromes.keys(); e.hasMoreElements();) {
-			String next_key = (String) e.nextElement();
+		new File(prob_file_name + COUNTS_SUFFIX).delete();
+	}
 
-			syndrome_lookup[((Integer) syndromes.get(next_key)).intValue()] =
-				next_key;
-		}
+	/*
+	 *  Cross-validate the classifier on a labelled file with the current
+	 *  weights, threshold and default probability, and print precision,
+	 *  recall and a confusion matrix (see CoCo_evaluation).  The folds
+	 *  run on 'threads' workers.
+	 */
+	/**
+	 *  Description of the Method
+	 */
+	public static void evaluate() {
+		CoCo_evaluation corpus = null;
 
-		for (Enumeration e = words.keys(); e.hasMoreElements();) {
-			String next_key = (String) e.nextElement();
+		System.out.print("Reading complaint training file...\n\n");
 
-			word_lookup[((Integer) words.get(next_key)).intValue()] = next_key;
+		try {
+			corpus = CoCo_evaluation.read(train_file_name);
+		} catch (Exception e) {
+			System.out.print(
+				"ERROR! Can not read file: " + train_file_name + "\n\n");
+			System.exit(0);
 		}
 
-		for (Enumeration e = wordpairs.keys(); e.hasMoreElements();) {
-			String next_key = (String) e.nextElement();
+		System.out.print(
+			"  Found "
+				+ corpus.string_count()
+				+ " strings and "
+				+ corpus.syndrome_count()
+				+ " syndromes\n\n");
 
-			wordpair_lookup[((Integer) wordpairs.get(next_key)).intValue()] =
-				next_key;
+		if (corpus.string_count() < folds) {
+			System.out.print(
+				"ERROR! Fewer strings than folds in " + train_file_name + "\n\n");
+			System.exit(0);
 		}
-		/*
-		 *  print_hashtable(complaints, "complaints");
-		 *  print_hashtable(syndromes, "syndromes");
-		 *  print_hashtable(words, "words");
-		 *  print_hashtable(wordpairs, "wordpairs");
-		 *  print_lookup(complaint_lookup, "complaint_lookup");
-		 *  print_lookup(syndrome_lookup, "syndrome_lookup");
-		 *  print_lookup(word_lookup, "word_lookup");
-		 *  print_lookup(wordpair_lookup, "wordpair_lookup");
-		 */
-		complaint_train = new int[syndrome_count][total_train];
-		count_train = new int[syndrome_count];
-		count_1_tuple = new int[syndrome_count][word_count];
-		count_2_tuple = new int[syndrome_count][wordpair_count];
-		total_1_tuple = new int[syndrome_count];
-		total_2_tuple = new int[syndrome_count];
-		prior_prob = new double[syndrome_count];
-		prob_1_tuple = new double[syndrome_count][word_count];
-		prob_2_tuple = new double[syndrome_count][wordpair_count];
-
-		for (loop1 = 0; loop1 < syndrome_count; loop1++) {
-			count_train[loop1] = 0;
-			total_1_tuple[loop1] = 0;
-			total_2_tuple[loop1] = 0;
-
-			for (loop2 = 0; loop2 < word_count; loop2++) {
-				count_1_tuple[loop1][loop2] = 0;
-			}
 
-			for (loop2 = 0; loop2 < wordpair_count; loop2++) {
-				count_2_tuple[loop1][loop2] = 0;
-			}
+		System.out.print(
+			"Evaluating "
+				+ folds
+				+ " folds (weight_1_tuple "
+				+ weight_1_tuple
+				+ ", weight_2_tuple "
+				+ weight_2_tuple
+				+ ", threshold "
+				+ threshold
+				+ ", default_prob "
+				+ default_prob
+				+ ")...\n\n");
+
+		corpus.run(folds, threads);
+	}
+
+	/*
+	 *  Fold newly labelled complaints into an existing model.
+	 *  0. Read the count snapshot train() left next to the probability
+	 *  file.
+	 *  1. Read the delta training file and add its counts, as train()
+	 *  does.
+	 *  2. Write out the probabilities and the new count snapshot.
+	 *  The result is the same as training on the old and the new lines
+	 *  together.  The old training lines are not read again; the time
+	 *  goes into the delta and into loading and writing the counts,
+	 *  which grow with the number of distinct n-grams, not with the
+	 *  length of the history.
+	 */
+	/**
+	 *  Description of the Method
+	 */
+	public static void update() {
+		String counts_file_name = prob_file_name + COUNTS_SUFFIX;
+		CoCo_trainer trainer = null;
+		int history = 0;
+
+		System.out.print("Reading count snapshot...\n\n");
+
+		try {
+			trainer = CoCo_trainer.read_counts(counts_file_name);
+			history = trainer.total_train();
+		} catch (Exception e) {
+			System.out.print(
+				"ERROR! Can not read file: " + counts_file_name + "\n\n");
+			System.exit(0);
 		}
 
+		System.out.print("Reading complaint training file...\n\n");
+
 		try {
-			String train_file_line = null;
-			BufferedReader train_file =
-				new BufferedReader(
-					new InputStreamReader(
-						new FileInputStream(train_file_name)));
-
-			while ((train_file_line = train_file.readLine()) != null) {
-				String train_file_token[] = split(train_file_line, ',');
-
-				if (train_file_token.length > 1) {
-					int complaint_index =
-						((Integer) complaints.get(train_file_token[0]))
-							.intValue();
-
-					for (loop = 1; loop < train_file_token.length; loop++) {
-						int syndrome_index =
-							((Integer) syndromes.get(train_file_token[loop]))
-								.intValue();
-
-						complaint_train[syndrome_index][count_train[syndrome_index]++] =
-							complaint_index;
-					}
-				}
+			if (threads > 1) {
+				trainer.merge(CoCo_parallel_trainer.read(train_file_name, threads));
+			} else {
+				trainer.read(train_file_name);
 			}
-
-			train_file.close();
 		} catch (Exception e) {
 			System.out.print(
 				"ERROR! Can not read file: " + train_file_name + "\n\n");
 			System.exit(0);
 		}
 
+		System.out.print(trainer.warnings());
 		System.out.print(
 			"  Found "
-				+ total_train
+				+ (trainer.total_train() - history)
+				+ " new strings; "
+				+ trainer.total_train()
 				+ " strings and "
-				+ syndrome_count
-				+ " syndromes\n\n");
+				+ trainer.syndrome_count()
+				+ " syndromes in all\n\n");
+
+		write(trainer);
+	}
+
+	/*
+	 *  Write the probability file and the count snapshot of a trainer.
+	 */
+	private static void write(CoCo_trainer trainer) {
+		String counts_file_name = prob_file_name + COUNTS_SUFFIX;
 
 		System.out.print("Computing probabilities...\n\n");
 
-		for (loop1 = 0; loop1 < syndrome_count; loop1++) {
-			for (loop2 = 0; loop2 < count_train[loop1]; loop2++) {
-				String complaint_token[] =
-					split_whitespace(complaint_lookup[complaint_train[loop1][loop2]]);
+		System.out.print("Writing probability output file...\n\n");
 
-				for (loop3 = 0; loop3 < complaint_token.length; loop3++) {
-					int word_index =
-						((Integer) words.get(complaint_token[loop3]))
-							.intValue();
+		try {
+			trainer.write(prob_file_name);
+		} catch (Exception e) {
+			System.out.print(
+				"ERROR! Can not write file: " + prob_file_name + "\n\n");
+			System.exit(0);
+		}
 
-					count_1_tuple[loop1][word_index]++;
-					total_1_tuple[loop1]++;
-				}
+		System.out.print("Writing count snapshot...\n\n");
 
-				for (loop3 = 0; loop3 < complaint_token.length - 1; loop3++) {
-					String wordpair =
-						complaint_token[loop3]
-							+ ","
-							+ complaint_token[loop3
-							+ 1];
-					int wordpair_index =
-						((Integer) wordpairs.get(wordpair)).intValue();
-
-					count_2_tuple[loop1][wordpair_index]++;
-					total_2_tuple[loop1]++;
-				}
-			}
+		try {
+			trainer.write_counts(counts_file_name);
+		} catch (Exception e) {
+			System.out.print(
+				"ERROR! Can not write file: " + counts_file_name + "\n\n");
+			System.exit(0);
+		}
+	}
 
-			for (loop2 = 0; loop2 < word_count; loop2++) {
-				if (count_1_tuple[loop1][loop2] > 0) {
-					prob_1_tuple[loop1][loop2] =
-						(double) count_1_tuple[loop1][loop2]
-							/ (double) total_1_tuple[loop1];
+	/**
+	 *  Description of the Method
+	 */
+	public static void batch() {
+		batch(model(prob_file_name));
+	}
 
-					prob_1_tuple_count++;
-				} else {
-					prob_1_tuple[loop1][loop2] = 0.0;
-				}
-			}
+	/*
+	 *  Classify each complaint in the complaint file and write the
+	 *  classifications to the classification file.  The run is
+	 *  checkpointed next to the classification file, so a run that dies
+	 *  part way is picked up where its last checkpoint left off by running
+	 *  the same command again; see CoCo_checkpoint.
+	 */
+	private static void batch(CoCo_model batch_model) {
+		System.out.print(
+			"Reading complaint file and writing classification file...\n\n");
 
-			for (loop2 = 0; loop2 < wordpair_count; loop2++) {
-				String wordpair_token[] = split(wordpair_lookup[loop2], ',');
-				int word_index =
-					((Integer) words.get(wordpair_token[0])).intValue();
+		FileInputStream complaint_file = null;
+		CoCo_checkpoint checkpoint = null;
 
-				if (count_2_tuple[loop1][loop2] > 0) {
-					prob_2_tuple[loop1][loop2] =
-						(double) count_2_tuple[loop1][loop2]
-							/ (double) count_1_tuple[loop1][word_index];
+		if (dedup) {
+			dedup(batch_model);
 
-					prob_2_tuple_count++;
-				} else {
-					prob_2_tuple[loop1][loop2] = 0.0;
-				}
-			}
+			return;
+		}
 
-			prior_prob[loop1] =
-				(double) count_train[loop1] / (double) total_train;
+		if (posterior) {
+			posterior(batch_model);
+
+			return;
 		}
 
-		System.out.print("Writing probability output file...\n\n");
+		if (gzip_output()
+			|| CoCo_compression.compressed(complaint_file_name)) {
+			compressed(batch_model);
+
+			return;
+		}
 
 		try {
-			BufferedWriter prob_file =
-				new BufferedWriter(
-					new OutputStreamWriter(
-						new FileOutputStream(prob_file_name)));
+			checkpoint =
+				new CoCo_checkpoint(
+					complaint_file_name,
+					classification_file_name,
+					prob_file_name);
+		} catch (Exception e) {
+			System.out.print(
+				"ERROR! Can not write file: "
+					+ classification_file_name
+					+ "\n\n");
+			System.exit(0);
+		}
 
-			prob_file.write(syndrome_count + "\n");
+		if (checkpoint.resume_records() > 0) {
+			System.out.print(
+				"Resuming at record " + checkpoint.resume_records() + "\n\n");
+		}
 
-			for (loop = 0; loop < syndrome_count; loop++) {
-				prob_file.write(
-					syndrome_lookup[loop] + "," + prior_prob[loop] + "\n");
-			}
+		try {
+			/*
+			 *  Byte-level path; see CoCo_mapped_batch.
+			 */
+			if (mapped_io) {
+				new CoCo_mapped_batch(batch_model).run(
+					complaint_file_name,
+					checkpoint);
+				checkpoint.finish();
 
-			prob_file.write(prob_1_tuple_count + "\n");
-
-			for (loop1 = 0; loop1 < syndrome_count; loop1++) {
-				for (loop2 = 0; loop2 < word_count; loop2++) {
-					if (prob_1_tuple[loop1][loop2] > 0.0) {
-						prob_file.write(
-							syndrome_lookup[loop1]
-								+ ","
-								+ word_lookup[loop2]
-								+ ","
-								+ prob_1_tuple[loop1][loop2]
-								+ "\n");
-					}
-				}
+				return;
 			}
 
-			prob_file.write(prob_2_tuple_count + "\n");
-
-			for (loop1 = 0; loop1 < syndrome_count; loop1++) {
-				for (loop2 = 0; loop2 < wordpair_count; loop2++) {
-					if (prob_2_tuple[loop1][loop2] > 0.0) {
-						prob_file.write(
-							syndrome_lookup[loop1]
-								+ ","
-								+ wordpair_lookup[loop2]
-								+ ","
-								+ prob_2_tuple[loop1][loop2]
-								+ "\n");
-					}
-				}
+			try {
+				complaint_file = new FileInputStream(complaint_file_name);
+				complaint_file.getChannel().position(checkpoint.resume_input());
+			} catch (Exception e) {
+				checkpoint.abandon();
+				System.out.print(
+					"ERROR! Can not read file: "
+						+ complaint_file_name
+						+ "\n\n");
+				System.exit(0);
 			}
 
-			prob_file.close();
-		} catch (Exception e) {
+			/*
+			 *  Lines are classified by 'threads' workers; see CoCo_pipeline.
+			 */
+			new CoCo_pipeline(batch_model, threads).run(
+				complaint_file,
+				checkpoint.output(),
+				checkpoint);
+			checkpoint.finish();
+			complaint_file.close();
+		} catch (IOException e) {
+			checkpoint.abandon();
+			System.out.print(e.getMessage() + "\n");
 			System.out.print(
-				"ERROR! Can not write file: " + prob_file_name + "\n\n");
+				"ERROR! Can not classify file: "
+					+ complaint_file_name
+					+ " into "
+					+ classification_file_name
+					+ "\n\n");
 			System.exit(0);
 		}
-
-		complaints.clear();
-		syndromes.clear();
-		words.clear();
-		wordpairs.clear();
-
-		complaint_lookup = null;
-		syndrome_lookup = null;
-		word_lookup = null;
-		wordpair_lookup = null;
-
-		complaint_train = null;
-		count_train = null;
-		count_1_tuple = null;
-		count_2_tuple = null;
-		total_1_tuple = null;
-		total_2_tuple = null;
-
-		prior_prob = null;
-		prob_1_tuple = null;
-		prob_2_tuple = null;
 	}
 
+	/*
+	 *  Directory mode: classify every file of the input directory that
+	 *  matches the glob into the output directory, in one process; see
+	 *  CoCo_directory_batch.
+	 */
 	/**
 	 *  Description of the Method
 	 */
-	public static void batch() {
-		int syndrome_count = 0;
-		int word_count = 0;
-		int wordpair_count = 0;
-		double prior_prob[] = null;
-		double prob_1_tuple[][] = null;
-		double prob_2_tuple[][] = null;
-		String syndrome_lookup[] = null;
-		String word_lookup[] = null;
-		String wordpair_lookup[] = null;
-		Hashtable syndromes = new Hashtable();
-		Hashtable words = new Hashtable();
-		Hashtable wordpairs = new Hashtable();
-		int loop;
-		int loop1;
-		int loop2;
-		
-		/*
-		 *  if(BATCH == 1)
-		 *  {
-		 *  System.out.print("Reading probability file...\n\n");
-		 *  }
-		 *  Read in the probabilities file.
-		 */
-		try {
-			int prior_prob_count = 0;
-			int prob_1_tuple_count = 0;
-			int prob_2_tuple_count = 0;
-			String prob_file_line = null;
-			BufferedReader prob_file =
-				new BufferedReader(
-					new InputStreamReader(new FileInputStream(prob_file_name)));
-
-			prior_prob_count = Integer.parseInt(prob_file.readLine());
-
-			for (loop = 0; loop < prior_prob_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-
-				syndromes.put(
-					prob_file_token[0],
-					new Integer(syndrome_count++));
-			}
-
-			prob_1_tuple_count = Integer.parseInt(prob_file.readLine());
+	public static void directory() {
+		CoCo_model batch_model = model(prob_file_name);
+		int failed = 0;
 
-			for (loop = 0; loop < prob_1_tuple_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-				Integer word_index = (Integer) words.get(prob_file_token[1]);
-
-				if (word_index == null) {
-					words.put(prob_file_token[1], new Integer(word_count++));
-				}
-			}
+		System.out.print(
+			"Classifying " + input_directory + "/" + glob
+				+ " into " + output_directory + "...\n\n");
 
-			prob_2_tuple_count = Integer.parseInt(prob_file.readLine());
+		try {
+			failed =
+				new CoCo_directory_batch(batch_model, threads, gzip_output).run(
+					input_directory,
+					glob,
+					output_directory);
+		} catch (IOException e) {
+			System.out.print(e.getMessage() + "\n");
+			System.out.print(
+				"ERROR! Can not classify directory: "
+					+ input_directory
+					+ " into "
+					+ output_directory
+					+ "\n\n");
+			System.exit(0);
+		}
 
-			for (loop = 0; loop < prob_2_tuple_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-				String wordpair = prob_file_token[1] + "," + prob_file_token[2];
-				Integer wordpair_index = (Integer) wordpairs.get(wordpair);
+		if (failed > 0) {
+			System.out.print(
+				"ERROR! Can not classify "
+					+ failed
+					+ " file(s); see "
+					+ new File(output_directory, CoCo_directory_batch.SUMMARY_FILE_NAME)
+					+ "\n\n");
+		}
+	}
 
-				if (wordpair_index == null) {
-					wordpairs.put(wordpair, new Integer(wordpair_count++));
-				}
-			}
+	/*
+	 *  Classify a compressed complaint file, or into a compressed
+	 *  classification file.  The complaint file is inflated on a thread of
+	 *  its own (see CoCo_compression) while the pipeline classifies it.
+	 *  Neither a compressed input nor a compressed output can be
+	 *  positioned at a byte offset, so these runs are not checkpointed,
+	 *  and -mmap does not apply.
+	 */
+	private static void compressed(CoCo_model batch_model) {
+		InputStream complaint_file = null;
+		OutputStream classification_file = null;
 
-			prob_file.close();
+		try {
+			complaint_file = CoCo_compression.open(complaint_file_name);
 		} catch (Exception e) {
-			System.out.print(e);
+			System.out.print(e.getMessage() + "\n");
 			System.out.print(
-				"ERROR! Can not read file: " + prob_file_name + "\n\n");
+				"ERROR! Can not read file: "
+					+ complaint_file_name
+					+ "\n\n");
 			System.exit(0);
 		}
 
-		syndrome_lookup = new String[syndrome_count];
-		/*
-		 *  word_lookup     = new String[word_count];
-		 *  wordpair_lookup = new String[wordpair_count];
-		 */
-		for (Enumeration e = syndromes.keys(); e.hasMoreElements();) {
-			String next_key = (String) e.nextElement();
+		try {
+			classification_file =
+				CoCo_compression.create(classification_file_name, gzip_output());
+		} catch (Exception e) {
+			System.out.print(
+				"ERROR! Can not write file: "
+					+ classification_file_name
+					+ "\n\n");
+			System.exit(0);
+		}
 
-			syndrome_lookup[((Integer) syndromes.get(next_key)).intValue()] =
-				next_key;
+		try {
+			new CoCo_pipeline(batch_model, threads).run(
+				complaint_file,
+				classification_file,
+				null);
+			classification_file.close();
+			complaint_file.close();
+		} catch (IOException e) {
+			System.out.print(e.getMessage() + "\n");
+			System.out.print(
+				"ERROR! Can not classify file: "
+					+ complaint_file_name
+					+ " into "
+					+ classification_file_name
+					+ "\n\n");
+			System.exit(0);
 		}
-		/*
-		 *  for(Enumeration e = words.keys(); e.hasMoreElements(); )
-		 *  {
-		 *  String next_key = (String)e.nextElement();
-		 *  word_lookup[((Integer)words.get(next_key)).intValue()] = next_key;
-		 *  }
-		 *  for(Enumeration e = wordpairs.keys(); e.hasMoreElements(); )
-		 *  {
-		 *  String next_key = (String)e.nextElement();
-		 *  wordpair_lookup[((Integer)wordpairs.get(next_key)).intValue()] = next_key;
-		 *  }
-		 */
-		prior_prob = new double[syndrome_count];
-		prob_1_tuple = new double[syndrome_count][word_count];
-		prob_2_tuple = new double[syndrome_count][wordpair_count];
+	}
 
-		for (loop1 = 0; loop1 < syndrome_count; loop1++) {
-			for (loop2 = 0; loop2 < word_count; loop2++) {
-				prob_1_tuple[loop1][loop2] = missing_prob;
-			}
+	/*
+	 *  Posterior mode: write the posterior probability of every syndrome
+	 *  for every complaint, instead of its label, to the classification
+	 *  file in the columnar format of CoCo_posterior_file.
+	 */
+	private static void posterior(CoCo_model batch_model) {
+		InputStream complaint_file = null;
+		CoCo_posterior_writer posterior_file = null;
 
-			for (loop2 = 0; loop2 < wordpair_count; loop2++) {
-				prob_2_tuple[loop1][loop2] = missing_prob;
-			}
+		try {
+			complaint_file = CoCo_compression.open(complaint_file_name);
+		} catch (Exception e) {
+			System.out.print(e.getMessage() + "\n");
+			System.out.print(
+				"ERROR! Can not read file: "
+					+ complaint_file_name
+					+ "\n\n");
+			System.exit(0);
 		}
 
 		try {
-			int prior_prob_count = 0;
-			int prob_1_tuple_count = 0;
-			int prob_2_tuple_count = 0;
-			String prob_file_line = null;
-			BufferedReader prob_file =
-				new BufferedReader(
-					new InputStreamReader(new FileInputStream(prob_file_name)));
-
-			prior_prob_count = Integer.parseInt(prob_file.readLine());
-
-			for (loop = 0; loop < prior_prob_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-				int syndrome_index =
-					((Integer) syndromes.get(prob_file_token[0])).intValue();
-
-				prior_prob[syndrome_index] =
-					(Double.valueOf(prob_file_token[1])).doubleValue();
-			}
-
-			prob_1_tuple_count = Integer.parseInt(prob_file.readLine());
-
-			for (loop = 0; loop < prob_1_tuple_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-				int syndrome_index =
-					((Integer) syndromes.get(prob_file_token[0])).intValue();
-				int word_index =
-					((Integer) words.get(prob_file_token[1])).intValue();
+			posterior_file =
+				new CoCo_posterior_writer(classification_file_name, batch_model);
+		} catch (Exception e) {
+			System.out.print(
+				"ERROR! Can not write file: "
+					+ classification_file_name
+					+ "\n\n");
+			System.exit(0);
+		}
 
-				prob_1_tuple[syndrome_index][word_index] =
-					(Double.valueOf(prob_file_token[2])).doubleValue();
+		try {
+			CoCo_line_reader reader = new CoCo_line_reader(complaint_file);
+			Charset charset = Charset.defaultCharset();
+
+			while (reader.next_line()) {
+				posterior_file.add(
+					batch_model.compute_posterior_probs(
+						CoCo_tokenizer.BATCH.words(
+							batch_model.vocabulary(),
+							new String(
+								reader.bytes(),
+								reader.line_start(),
+								reader.line_end() - reader.line_start(),
+								charset))));
 			}
 
-			prob_2_tuple_count = Integer.parseInt(prob_file.readLine());
+			posterior_file.finish();
+			complaint_file.close();
+		} catch (IOException e) {
+			posterior_file.abandon();
+			System.out.print(e.getMessage() + "\n");
+			System.out.print(
+				"ERROR! Can not classify file: "
+					+ complaint_file_name
+					+ " into "
+					+ classification_file_name
+					+ "\n\n");
+			System.exit(0);
+		}
+	}
 
-			for (loop = 0; loop < prob_2_tuple_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-				String wordpair = prob_file_token[1] + "," + prob_file_token[2];
-				int syndrome_index =
-					((Integer) syndromes.get(prob_file_token[0])).intValue();
-				int wordpair_index =
-					((Integer) wordpairs.get(wordpair)).intValue();
+	/*
+	 *  Whether the classification file is to be gzip-compressed: asked
+	 *  for with -gzip or by a name ending in .gz.
+	 */
+	private static boolean gzip_output() {
+		return gzip_output || classification_file_name.endsWith(".gz");
+	}
 
-				prob_2_tuple[syndrome_index][wordpair_index] =
-					(Double.valueOf(prob_file_token[3])).doubleValue();
-			}
+	/*
+	 *  Dedup mode: classify each distinct complaint once and write the
+	 *  frequency table of the complaints to the classification file name
+	 *  with ".freq" appended; see CoCo_dedup_batch.  The frequency table
+	 *  needs the whole file, so this mode is not checkpointed.
+	 */
+	private static void dedup(CoCo_model batch_model) {
+		CoCo_dedup_batch dedup_batch = new CoCo_dedup_batch(batch_model);
+		InputStream complaint_file = null;
+		OutputStream classification_file = null;
+		Writer frequency_file = null;
 
-			prob_file.close();
+		try {
+			complaint_file = CoCo_compression.open(complaint_file_name);
 		} catch (Exception e) {
+			System.out.print(e.getMessage() + "\n");
 			System.out.print(
-				"ERROR! Can not read file: " + prob_file_name + "\n\n");
+				"ERROR! Can not read file: "
+					+ complaint_file_name
+					+ "\n\n");
 			System.exit(0);
 		}
-		/*
-		 *  print_hashtable(syndromes, "syndromes");
-		 *  print_hashtable(words, "words");
-		 *  print_hashtable(wordpairs, "wordpairs");
-		 *  print_lookup(syndrome_lookup, "syndrome_lookup");
-		 *  print_lookup(word_lookup, "word_lookup");
-		 *  print_lookup(wordpair_lookup, "wordpair_lookup");
-		 *  print_prob_array(prior_prob, "prior_prob", syndrome_lookup);
-		 *  for(loop=0; loop < syndrome_count; loop++)
-		 *  {
-		 *  print_prob_array(prob_1_tuple[loop], "prob_1_tuple{" + syndrome_lookup[loop] + "}",
-		 *  word_lookup);
-		 *  }
-		 *  for(loop=0; loop < syndrome_count; loop++)
-		 *  {
-		 *  print_prob_array(prob_2_tuple[loop], "prob_2_tuple{" + syndrome_lookup[loop] + "}",
-		 *  wordpair_lookup);
-		 *  }
-		 */
-		/*
-		 *  If batch mode, classify each complaint in the complaint file
-		 *  and write the classifications to the classification file.
-		 */
-		if (true) {
+
+		try {
+			classification_file =
+				CoCo_compression.create(classification_file_name, gzip_output());
+			frequency_file =
+				new BufferedWriter(
+					new OutputStreamWriter(
+						new FileOutputStream(classification_file_name + ".freq")));
+		} catch (Exception e) {
 			System.out.print(
-				"Reading complaint file and writing classification file...\n\n");
+				"ERROR! Can not write file: "
+					+ classification_file_name
+					+ "\n\n");
+			System.exit(0);
+		}
 
-			try {
-				String complaint_file_line = null;
-				BufferedReader complaint_file =
-					new BufferedReader(
-						new InputStreamReader(
-							new FileInputStream(complaint_file_name)));
-
-				try {
-					BufferedWriter classification_file =
-						new BufferedWriter(
-							new OutputStreamWriter(
-								new FileOutputStream(classification_file_name)));
-
-					while ((complaint_file_line = complaint_file.readLine())
-						!= null) {
-						double complaint_prob[] =
-							compute_posterior_probs(
-								complaint_file_line,
-								syndrome_count,
-								words,
-								wordpairs,
-								prior_prob,
-								prob_1_tuple,
-								prob_2_tuple);
-
-						String syndrome_string =
-							posterior_probs_to_syndrome_string(
-								complaint_prob,
-								syndrome_count,
-								syndrome_lookup);
-
-						classification_file.write(syndrome_string + "\n");
-					}
+		try {
+			dedup_batch.run(complaint_file, classification_file);
+			dedup_batch.write_frequencies(frequency_file);
+			frequency_file.close();
+			classification_file.close();
+			complaint_file.close();
+		} catch (IOException e) {
+			System.out.print(e.getMessage() + "\n");
+			System.out.print(
+				"ERROR! Can not classify file: "
+					+ complaint_file_name
+					+ " into "
+					+ classification_file_name
+					+ "\n\n");
+			System.exit(0);
+		}
 
-					classification_file.close();
-				} catch (Exception e) {
-					System.out.print(
-						"ERROR! Can not write file: "
-							+ classification_file_name
-							+ "\n\n");
-					System.exit(0);
-				}
+		System.out.print(
+			dedup_batch.lines()
+				+ " complaints, "
+				+ dedup_batch.distinct()
+				+ " distinct\n\n");
+	}
 
-				complaint_file.close();
-			} catch (Exception e) {
-				System.out.print(
-					"ERROR! Can not read file: "
-						+ complaint_file_name
-						+ "\n\n");
-				System.exit(0);
-			}
+	/*
+	 *  Stream mode: classify the complaints read from standard input, one
+	 *  per line, and write one classification per line to standard
+	 *  output, so the classifier can sit in a shell pipeline.  Standard
+	 *  output carries nothing but classifications; every other message
+	 *  goes to standard error.  The process is meant to stay up, so the
+	 *  probability file is watched and a retrained model is picked up
+	 *  between two records.
+	 */
+	/**
+	 *  Description of the Method
+	 */
+	public static void stream() {
+		OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+
+		System.setOut(System.err);
+		model(prob_file_name);
+		watch();
+
+		try {
+			stream(System.in, stdout);
+		} catch (IOException e) {
+			System.out.print(e.getMessage() + "\n");
+			System.out.print("ERROR! Can not stream complaints\n\n");
+			System.exit(0);
 		}
 	}
 
 	/*
-	 *  If line mode, classify the complaint from the command line and
-	 *  print the classification to STDOUT.
+	 *  Output is collected in a STREAM_BYTES buffer that only ever holds
+	 *  whole records.  It is written out when the next record would not
+	 *  fit, and whenever no more input is waiting, so a consumer sees
+	 *  each classification as soon as the complaint has been read, while
+	 *  a bulk feed is written in large blocks.
 	 */
+	private static final int STREAM_BYTES = 1 << 16;
+
 	/**
 	 *  Description of the Method
 	 *
-	 * @param  prob_file_name  Description of the Parameter
+	 * @param  in               complaints, one per line
+	 * @param  out              classifications, one per line
+	 * @return                  the number of lines classified
+	 * @exception  IOException  if reading or writing fails
 	 */
-	public static void lineInit(String prob_file_name) {
-		int word_count = 0;
-		int wordpair_count = 0;
-		String word_lookup[] = null;
-		String wordpair_lookup[] = null;
-		int loop;
-		int loop1;
-		int loop2;
-		try {
-			int prior_prob_count = 0;
-			int prob_1_tuple_count = 0;
-			int prob_2_tuple_count = 0;
-			String prob_file_line = null;
-			BufferedReader prob_file =
-				new BufferedReader(
-					new InputStreamReader(new FileInputStream(prob_file_name)));
-
-			prior_prob_count = Integer.parseInt(prob_file.readLine());
-
-			for (loop = 0; loop < prior_prob_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-
-				syndromes.put(
-					prob_file_token[0],
-					new Integer(syndrome_count++));
+	static long stream(InputStream in, OutputStream out) throws IOException {
+		BufferedReader complaint_stream =
+			new BufferedReader(new InputStreamReader(in), STREAM_BYTES);
+		Map<String, byte[]> encoded = new HashMap<String, byte[]>();
+		byte pending[] = new byte[STREAM_BYTES];
+		int pending_bytes = 0;
+		long lines = 0;
+		String complaint_line;
+
+		while ((complaint_line = complaint_stream.readLine()) != null) {
+			String syndrome_string = model().classify_words(complaint_line);
+			byte record[] = encoded.get(syndrome_string);
+
+			if (record == null) {
+				record = (syndrome_string + "\n").getBytes();
+				encoded.put(syndrome_string, record);
 			}
 
-			prob_1_tuple_count = Integer.parseInt(prob_file.readLine());
-
-			for (loop = 0; loop < prob_1_tuple_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-				Integer word_index = (Integer) words.get(prob_file_token[1]);
-
-				if (word_index == null) {
-					words.put(prob_file_token[1], new Integer(word_count++));
-				}
+			if (pending_bytes + record.length > pending.length) {
+				out.write(pending, 0, pending_bytes);
+				pending_bytes = 0;
 			}
 
-			prob_2_tuple_count = Integer.parseInt(prob_file.readLine());
+			if (record.length > pending.length) {
+				out.write(record);
+			} else {
+				System.arraycopy(record, 0, pending, pending_bytes, record.length);
+				pending_bytes += record.length;
+			}
 
-			for (loop = 0; loop < prob_2_tuple_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-				String wordpair = prob_file_token[1] + "," + prob_file_token[2];
-				Integer wordpair_index = (Integer) wordpairs.get(wordpair);
+			lines++;
 
-				if (wordpair_index == null) {
-					wordpairs.put(wordpair, new Integer(wordpair_count++));
-				}
+			if (!complaint_stream.ready()) {
+				out.write(pending, 0, pending_bytes);
+				out.flush();
+				pending_bytes = 0;
 			}
-
-			prob_file.close();
-		} catch (Exception e) {
-			System.out.print(
-				"ERROR! Can not read file: " + prob_file_name + "\n\n");
-			System.exit(0);
 		}
 
-		syndrome_lookup = new String[syndrome_count];
-		/*
-		 *  word_lookup     = new String[word_count];
-		 *  wordpair_lookup = new String[wordpair_count];
-		 */
-		for (Enumeration e = syndromes.keys(); e.hasMoreElements();) {
-			String next_key = (String) e.nextElement();
-
-			syndrome_lookup[((Integer) syndromes.get(next_key)).intValue()] =
-				next_key;
-		}
-		/*
-		 *  for(Enumeration e = words.keys(); e.hasMoreElements(); )
-		 *  {
-		 *  String next_key = (String)e.nextElement();
-		 *  word_lookup[((Integer)words.get(next_key)).intValue()] = next_key;
-		 *  }
-		 *  for(Enumeration e = wordpairs.keys(); e.hasMoreElements(); )
-		 *  {
-		 *  String next_key = (String)e.nextElement();
-		 *  wordpair_lookup[((Integer)wordpairs.get(next_key)).intValue()] = next_key;
-		 *  }
-		 */
-		prior_prob = new double[syndrome_count];
-		prob_1_tuple = new double[syndrome_count][word_count];
-		prob_2_tuple = new double[syndrome_count][wordpair_count];
+		out.write(pending, 0, pending_bytes);
+		out.flush();
 
-		for (loop1 = 0; loop1 < syndrome_count; loop1++) {
-			for (loop2 = 0; loop2 < word_count; loop2++) {
-				prob_1_tuple[loop1][loop2] = missing_prob;
-			}
+		return lines;
+	}
 
-			for (loop2 = 0; loop2 < wordpair_count; loop2++) {
-				prob_2_tuple[loop1][loop2] = missing_prob;
-			}
-		}
+	/*
+	 *  If line mode, classify the complaint from the command line and
+	 *  print the classification to STDOUT.
+	 */
+	/**
+	 *  Description of the Method
+	 *
+	 * @param  prob_file_name  Description of the Parameter
+	 * @return                 the model now shared by line() and batch()
+	 */
+	public static CoCo_model lineInit(String prob_file_name) {
+		CoCo_model m = load(prob_file_name);
 
-		try {
-			int prior_prob_count = 0;
-			int prob_1_tuple_count = 0;
-			int prob_2_tuple_count = 0;
-			String prob_file_line = null;
-			BufferedReader prob_file =
-				new BufferedReader(
-					new InputStreamReader(new FileInputStream(prob_file_name)));
-//            System.out.println("Inside the intline() from defualt_prob.txt"+prob_file.readLine());
-			prior_prob_count = Integer.parseInt(prob_file.readLine());
-
-			for (loop = 0; loop < prior_prob_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-				int syndrome_index =
-					((Integer) syndromes.get(prob_file_token[0])).intValue();
-
-				prior_prob[syndrome_index] =
-					(Double.valueOf(prob_file_token[1])).doubleValue();
-			}
+		model.set(prob_file_name, m);
 
-			prob_1_tuple_count = Integer.parseInt(prob_file.readLine());
+		return m;
+	}
 
-			for (loop = 0; loop < prob_1_tuple_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-				int syndrome_index =
-					((Integer) syndromes.get(prob_file_token[0])).intValue();
-				int word_index =
-					((Integer) words.get(prob_file_token[1])).intValue();
+	/*
+	 *  Load a probability file: a compiled model file is mapped, a text
+	 *  one is parsed in a single pass (see CoCo_prob_file).
+	 */
+	private static CoCo_model load(String prob_file_name) {
+		try {
+			return read_model(prob_file_name);
+		} catch (IOException e) {
+			System.out.print(e.getMessage() + "\n");
+			System.out.print(
+				"ERROR! Can not read file: " + prob_file_name + "\n\n");
+			System.exit(0);
 
-				prob_1_tuple[syndrome_index][word_index] =
-					(Double.valueOf(prob_file_token[2])).doubleValue();
-			}
+			return null;
+		}
+	}
 
-			prob_2_tuple_count = Integer.parseInt(prob_file.readLine());
+	/*
+	 *  Read a probability or compiled model file with the current
+	 *  classifier parameters, reporting errors to the caller.
+	 */
+	static CoCo_model read_model(String prob_file_name) throws IOException {
+		if (CoCo_model_file.is_model_file(prob_file_name)) {
+			return CoCo_model.map(
+				prob_file_name,
+				weight_1_tuple,
+				weight_2_tuple,
+				threshold,
+				default_prob);
+		}
 
-			for (loop = 0; loop < prob_2_tuple_count; loop++) {
-				String prob_file_token[] = split(prob_file.readLine(), ',');
-				String wordpair = prob_file_token[1] + "," + prob_file_token[2];
-				int syndrome_index =
-					((Integer) syndromes.get(prob_file_token[0])).intValue();
-				int wordpair_index =
-					((Integer) wordpairs.get(wordpair)).intValue();
+		return CoCo_prob_file.load(
+			prob_file_name,
+			weight_1_tuple,
+			weight_2_tuple,
+			threshold,
+			default_prob,
+			missing_prob);
+	}
 
-				prob_2_tuple[syndrome_index][wordpair_index] =
-					(Double.valueOf(prob_file_token[3])).doubleValue();
-			}
+	/*
+	 *  Compile the probability file into a binary model file that line
+	 *  and batch mode can memory-map instead of parsing.
+	 */
+	/**
+	 *  Description of the Method
+	 */
+	public static void compile() {
+		CoCo_model m = lineInit(prob_file_name);
 
-			prob_file.close();
-		} catch (Exception e) {
+		try {
+			CoCo_model_file.write(m, model_file_name);
+		} catch (IOException e) {
 			System.out.print(
-				"ERROR! Can not read file: " + prob_file_name + "\n\n");
+				"ERROR! Can not write file: " + model_file_name + "\n\n");
 			System.exit(0);
 		}
 	}
@@ -1191,270 +1373,45 @@ public class CoCo_batch {
 	 * @param  complaint_string  Description of the Parameter
 	 * @return                   Description of the Return Value
 	 */
-	public synchronized static String line(String complaint_string)
-	{
-		String syndrome_string = null;
-		if (!complaint_string.equals(" ")) {
-			//		Create a pattern to match breaks
-			Pattern p = Pattern.compile("[-\r\\s\\t\\n/&.,/?_()+:;\\\"']+");
-
-			String[] result = p.split(complaint_string);
-			if(result.length==0){
-				
-				int lastindex = result.length;
-				
-				result[lastindex+1] = prob_file_name;
-//				result[2] = prob_file_name;
-			}
-			StringBuffer sbuff = new StringBuffer(2 * result.length);
-
-			for (int i = 0; i < result.length; i++)
-//				System.out.println(result[i]);
-				complaint_string =
-					sbuff
-						.append(result[i])
-						.append(" ")
-						.toString()
-						.toLowerCase()
-						.trim();
-           System.out.println("SBUFF VALUE INSIDE INLINE"+sbuff);
-           
-			double complaint_prob[] =
-				compute_posterior_probs(
-					complaint_string,
-					syndrome_count,
-					words,
-					wordpairs,
-					prior_prob,
-					prob_1_tuple,
-					prob_2_tuple);
-//			for(int i=0; i < complaint_prob[]; i++){
-			int test = complaint_prob.length;
-			System.out.println("COMPLIANT_PROBB INSIDE INLINE"+complaint_prob);
-//			}
-			System.out.println("COMPLIANT_STRING INSIDE INLINE"+complaint_string);
-			System.out.println("syndrome_count INSIDE INLINE"+syndrome_count);
-			System.out.println("words INSIDE INLINE"+words);
-			System.out.println("wordpairs INSIDE INLINE"+wordpairs);
-			System.out.println("prior_prob INSIDE INLINE"+prior_prob);
-			System.out.println("syndrome_lookup INSIDE INLINE"+syndrome_lookup);
-			
-			syndrome_string =
-				posterior_probs_to_syndrome_string(
-					complaint_prob,
-					syndrome_count,
-					syndrome_lookup);
-			//System.out.print(syndrome_string + "\n");
-			
-		}
+	public static String line(String complaint_string) {
 		if (complaint_string.equals(" ")) {
-			syndrome_string = "other";
-			}
-		return syndrome_string;
-	}
-
-	/*
-	 *  syndromes.clear();
-	 *  words.clear();
-	 *  wordpairs.clear();
-	 *  syndrome_lookup = null;
-	 *  word_lookup     = null;
-	 *  wordpair_lookup = null;
-	 *  prior_prob   = null;
-	 *  prob_1_tuple = null;
-	 *  prob_2_tuple = null;
-	 *  }
-	 */
-	/*
-	 *  Convert the posterior probabilities into a string indicating
-	 *  into which syndromes the complaint string has been classified.
-	 *  If the threshold is less than 0, then the string comprises
-	 *  that syndrome with the highest posterior probability (in
-	 *  the case of a tie, the syndrome that sorts first is chosen).
-	 *  If the threshold is greater than or equal to 0, then the string
-	 *  comprises those syndromes having a posterior probability greater
-	 *  than or equal to the threshold.  If no syndrome has such a posterior
-	 *  probability, then return an empty string.
-	 */
-	/**
-	 *  Description of the Method
-	 *
-	 * @param  complaint_prob   Description of the Parameter
-	 * @param  syndrome_count   Description of the Parameter
-	 * @param  syndrome_lookup  Description of the Parameter
-	 * @return                  Description of the Return Value
-	 */
-	private static String posterior_probs_to_syndrome_string(
-		double[] complaint_prob,
-		int syndrome_count,
-		String[] syndrome_lookup) {
-		String syndrome_string;
-		int loop;
-
-		System.out.println("complaint_prob"+complaint_prob);
-		System.out.println("syndrome_count"+syndrome_count);
-		System.out.println("syndrome_lookup"+syndrome_lookup);
-		
-		if (threshold < 0.0) {
-			int predict = 0;
-            
-            
-			for (loop = 1; loop < syndrome_count; loop++) {
-				if (complaint_prob[loop] > complaint_prob[predict]) {
-					predict = loop;
-				}
-			}
-
-			if (complaint_prob[predict] == 0.0) {
-				syndrome_string = "Other";
-			} else {
-				syndrome_string = syndrome_lookup[predict];
-			}
-
-		} else {
-			int predict[] = new int[syndrome_count];
-			int index = 0;
-
-			for (loop = 0; loop < syndrome_count; loop++) {
-				predict[loop] = 0;
-
-				if (complaint_prob[loop] >= threshold) {
-					predict[loop] = 1;
-				}
-			}
-
-			syndrome_string = "";
-
-			for (loop = 0; loop < syndrome_count; loop++) {
-				if (predict[loop] == 1) {
-					if (index > 0) {
-						syndrome_string += ",";
-					}
-
-					syndrome_string += syndrome_lookup[loop];
-
-					index++;
-				}
-			}
-
-			predict = null;
+			return "other";
 		}
 
-		return syndrome_string;
+		return line_cache().classify(model(), complaint_string);
 	}
 
 	/*
-	 *  Compute the posterior probability for a complaint string with
-	 *  respect to each syndrome using a Bayesian classifier.  Return
-	 *  the set of posterior probabilities.
+	 *  Return the cache in front of line(), creating it on first use.
+	 *  Its counters tell how well it works for the front end at hand.
 	 */
 	/**
 	 *  Description of the Method
 	 *
-	 * @param  c_str           Description of the Parameter
-	 * @param  syndrome_count  Description of the Parameter
-	 * @param  words           Description of the Parameter
-	 * @param  wordpairs       Description of the Parameter
-	 * @param  prior_prob      Description of the Parameter
-	 * @param  prob_1_tuple    Description of the Parameter
-	 * @param  prob_2_tuple    Description of the Parameter
-	 * @return                 Description of the Return Value
+	 * @return    the line() cache
 	 */
-	private static double[] compute_posterior_probs(
-		String c_str,
-		int syndrome_count,
-		Hashtable words,
-		Hashtable wordpairs,
-		double[] prior_prob,
-		double[][] prob_1_tuple,
-		double[][] prob_2_tuple) {
-		String complaint_token[] = split_whitespace(c_str);
-		for(int i=0; i < complaint_token.length; i++){
-		System.out.println("complaint token inside compute_posterior_probs"+complaint_token[i]);
-		}
-		Integer first_word_index = (Integer) words.get(complaint_token[0]);
-		double complaint_prob[] = new double[syndrome_count];
-		double complaint_prob_num[] = new double[syndrome_count];
-		double complaint_prob_den = 0.0;
-		double first_word_prob = default_prob;
-		int loop;
-		int loop1;
-		int loop2;
-
-		for (loop1 = 0; loop1 < syndrome_count; loop1++) {
-			boolean word_found = false;
-			boolean wordpair_found = false;
-
-			complaint_prob_num[loop1] = prior_prob[loop1];
-
-			if (first_word_index != null) {
-				first_word_prob =
-					prob_1_tuple[loop1][first_word_index.intValue()];
-
-				if (first_word_prob == missing_prob) {
-					first_word_prob = default_prob;
-				} else {
-					word_found = true;
-				}
-			}
-
-			complaint_prob_num[loop1] *= first_word_prob;
+	public static CoCo_line_cache line_cache() {
+		CoCo_line_cache cache = line_cache;
 
-			for (loop2 = 0; loop2 < complaint_token.length - 1; loop2++) {
-				String wordpair =
-					complaint_token[loop2] + "," + complaint_token[loop2 + 1];
-				Integer word_index =
-					(Integer) words.get(complaint_token[loop2 + 1]);
-				Integer wordpair_index = (Integer) wordpairs.get(wordpair);
-				double word_prob = default_prob;
-				double wordpair_prob = default_prob;
+		if (cache == null) {
+			synchronized (CoCo_batch.class) {
+				cache = line_cache;
 
-				if (word_index != null) {
-					word_prob = prob_1_tuple[loop1][word_index.intValue()];
+				if (cache == null) {
+					final CoCo_line_cache new_cache =
+						new CoCo_line_cache(line_cache_size);
 
-					if (word_prob == missing_prob) {
-						word_prob = default_prob;
-					} else {
-						word_found = true;
-					}
-				}
-
-				if (wordpair_index != null) {
-					wordpair_prob =
-						prob_2_tuple[loop1][wordpair_index.intValue()];
-
-					if (wordpair_prob == missing_prob) {
-						wordpair_prob = default_prob;
-					} else {
-						wordpair_found = true;
-					}
+					model.on_change(new Runnable() {
+						public void run() {
+							new_cache.invalidate();
+						}
+					});
+					line_cache = cache = new_cache;
 				}
-
-				complaint_prob_num[loop1]
-					*= ((weight_2_tuple * wordpair_prob)
-						+ (weight_1_tuple * word_prob));
-			}
-
-			if ((!word_found)
-				|| ((!wordpair_found) && (weight_2_tuple > 0.0))) {
-				complaint_prob_num[loop1] = 0.0;
-			}
-
-			complaint_prob_den += complaint_prob_num[loop1];
-		}
-
-		for (loop = 0; loop < syndrome_count; loop++) {
-			if (complaint_prob_den > 0.0) {
-				complaint_prob[loop] =
-					complaint_prob_num[loop] / complaint_prob_den;
-			} else {
-				complaint_prob[loop] = 0.0;
 			}
 		}
 
-		complaint_prob_num = null;
-        System.out.println("Value of complaint_prob"+complaint_prob);
-		return complaint_prob;
+		return cache;
 	}
 
 	/*
@@ -1537,7 +1494,7 @@ public class CoCo_batch {
 	 * @param  separator  Description of the Parameter
 	 * @return            Description of the Return Value
 	 */
-	private static String[] split(String line, char separator) {
+	static String[] split(String line, char separator) {
 		String[] token = null;
 
 		while (true) {
@@ -1589,7 +1546,7 @@ public class CoCo_batch {
 	 * @param  line  Description of the Parameter
 	 * @return       Description of the Return Value
 	 */
-	private static String[] split_whitespace(String line) {
+	static String[] split_whitespace(String line) {
 		line = line.replace('\t', ' ');
 		line = line.replace('\n', ' ');
 
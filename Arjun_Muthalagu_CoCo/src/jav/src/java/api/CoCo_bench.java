@@ -0,0 +1,1137 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.util.*;
+
+/*
+ *  Micro benchmarks for the CoCo loader and classifier.
+ *  CoCo_bench <benchmark> [-Pprob_file_name] [-Mmegabytes]
+ *  vocabulary - perfect hash build time and word lookup throughput
+ *  compared with a Hashtable
+ *  load       - time to load the text probability file and the
+ *  compiled model file made from it
+ *  loader     - text loader time on the probability file and on a
+ *  synthetic one ten times its size
+ *  batch      - batch lines/s on a synthetic complaint file, one thread
+ *  without the pipeline and 1, 4, 16 and 32 pipeline workers
+ *  io         - batch MB/s of the reader/writer path and of the
+ *  memory-mapped byte-level path, both on one thread
+ *  dedup      - batch lines/s with and without deduplication on a
+ *  synthetic feed that repeats a few thousand complaints
+ *  cache      - line() classifications/s with and without the result
+ *  cache on a skewed stream of complaints
+ *  gzip       - batch MB/s on plain and gzip-compressed input, with the
+ *  inflater on its own thread and inline, and with gzip output
+ *  posterior  - size of the columnar posterior file and time to sum
+ *  every column, against a CSV of the same probabilities
+ *  train      - training time and speedup over one thread at 1, 2, 4 ...
+ *  threads up to the processor count, on a synthetic labelled corpus
+ *  of -Mmegabytes (default 256)
+ *  The numbers are printed to the screen; they are meant for comparing
+ *  runs on the same machine, not as absolute figures.
+ */
+/**
+ *  Benchmark driver.
+ */
+public class CoCo_bench {
+
+	static String prob_file_name = "default_probs.txt";
+	static int train_megabytes = 256;
+
+	/*
+	 *  Keeps results alive so the JIT can not drop the measured work.
+	 */
+	static long sink = 0;
+
+	/**
+	 *  Description of the Method
+	 *
+	 * @param  args  Description of the Parameter
+	 */
+	public static void main(String args[]) {
+		if (args.length < 1) {
+			System.out.println("usage: CoCo_bench <benchmark> [-Pprob_file_name] [-Mmegabytes]");
+			System.out.println("\t vocabulary : vocabulary build and lookup");
+			System.out.println("\t load : text and compiled model load time");
+			System.out.println("\t loader : text loader time at 1x and 10x size");
+			System.out.println("\t batch : batch pipeline lines/s by worker count");
+			System.out.println("\t io : reader/writer and memory-mapped batch MB/s");
+			System.out.println("\t dedup : batch lines/s with and without deduplication");
+			System.out.println("\t cache : line() classifications/s with and without the cache");
+			System.out.println("\t gzip : batch MB/s on plain and gzip input and output");
+			System.out.println("\t posterior : columnar posterior file size and aggregation time");
+			System.out.println("\t train : training time and speedup by thread count");
+			System.exit(0);
+		}
+
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].length() > 2
+				&& (args[i].startsWith("-P") || args[i].startsWith("-p"))) {
+				prob_file_name = args[i].substring(2);
+			}
+
+			if (args[i].length() > 2
+				&& (args[i].startsWith("-M") || args[i].startsWith("-m"))) {
+				train_megabytes = Integer.parseInt(args[i].substring(2));
+			}
+		}
+
+		if (args[0].equals("vocabulary")) {
+			vocabulary();
+		} else if (args[0].equals("load")) {
+			load();
+		} else if (args[0].equals("loader")) {
+			loader();
+		} else if (args[0].equals("batch")) {
+			batch();
+		} else if (args[0].equals("io")) {
+			io();
+		} else if (args[0].equals("dedup")) {
+			dedup();
+		} else if (args[0].equals("cache")) {
+			cache();
+		} else if (args[0].equals("gzip")) {
+			gzip();
+		} else if (args[0].equals("posterior")) {
+			posterior();
+		} else if (args[0].equals("train")) {
+			train();
+		} else {
+			System.out.print("\nCoCo_bench: unknown benchmark " + args[0] + "\n\n");
+		}
+	}
+
+	/*
+	 *  Build the vocabulary of the probability file a few times, then look
+	 *  up every word and as many unknown words the way the tokenizers do:
+	 *  the old path cuts a String out of the complaint text and asks a
+	 *  Hashtable, the new one hashes the characters in place and asks the
+	 *  perfect hash.
+	 */
+	static void vocabulary() {
+		CoCo_vocabulary words = CoCo_batch.lineInit(prob_file_name).vocabulary();
+		String word_lookup[] = new String[words.size()];
+		Hashtable<String, Integer> table = new Hashtable<String, Integer>();
+		StringBuffer sbuff = new StringBuffer();
+		int bounds[] = new int[words.size() * 4];
+		long best_build = Long.MAX_VALUE;
+		int rounds = 1000;
+		int loop;
+
+		for (loop = 0; loop < word_lookup.length; loop++) {
+			word_lookup[loop] = words.word(loop);
+			table.put(word_lookup[loop], Integer.valueOf(loop));
+
+			bounds[4 * loop] = sbuff.length();
+			sbuff.append(word_lookup[loop]);
+			bounds[4 * loop + 1] = sbuff.length();
+			sbuff.append(' ');
+			bounds[4 * loop + 2] = sbuff.length();
+			sbuff.append(word_lookup[loop]).append('q');
+			bounds[4 * loop + 3] = sbuff.length();
+			sbuff.append(' ');
+		}
+
+		String text = sbuff.toString();
+
+		for (loop = 0; loop < 20; loop++) {
+			best_build =
+				Math.min(
+					best_build,
+					new CoCo_vocabulary(word_lookup).build_nanos());
+		}
+
+		System.out.print(
+			"Vocabulary: "
+				+ word_lookup.length
+				+ " words, perfect hash built in "
+				+ (best_build / 1000)
+				+ " us\n");
+
+		for (int pass = 0; pass < 3; pass++) {
+			long start = System.nanoTime();
+
+			for (int round = 0; round < rounds; round++) {
+				for (loop = 0; loop < bounds.length; loop += 2) {
+					Integer id =
+						table.get(text.substring(bounds[loop], bounds[loop + 1]));
+
+					sink += id == null ? -1 : id.intValue();
+				}
+			}
+
+			long table_nanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+
+			for (int round = 0; round < rounds; round++) {
+				for (loop = 0; loop < bounds.length; loop += 2) {
+					long hash = CoCo_vocabulary.HASH_SEED;
+
+					for (int c = bounds[loop]; c < bounds[loop + 1]; c++) {
+						hash = CoCo_vocabulary.hash_step(hash, text.charAt(c));
+					}
+
+					sink +=
+						words.id(hash, text, bounds[loop], bounds[loop + 1], false);
+				}
+			}
+
+			long hash_nanos = System.nanoTime() - start;
+			long lookups = rounds * (long) bounds.length / 2;
+
+			System.out.print(
+				"  pass "
+					+ pass
+					+ ": substring + Hashtable "
+					+ rate(lookups, table_nanos)
+					+ " M lookups/s, in-place perfect hash "
+					+ rate(lookups, hash_nanos)
+					+ " M lookups/s\n");
+		}
+	}
+
+	/*
+	 *  Compile the probability file to a temporary model file, then load
+	 *  each form a few times.  The first load of each is reported
+	 *  separately since it includes class loading and a cold JIT.
+	 */
+	static void load() {
+		try {
+			java.io.File model_file =
+				java.io.File.createTempFile("coco", ".model");
+
+			model_file.deleteOnExit();
+			CoCo_model_file.write(
+				CoCo_batch.lineInit(prob_file_name),
+				model_file.getPath());
+
+			System.out.print(
+				"Text file   "
+					+ new java.io.File(prob_file_name).length()
+					+ " bytes, compiled model "
+					+ model_file.length()
+					+ " bytes\n");
+
+			for (int pass = 0; pass < 5; pass++) {
+				long start = System.nanoTime();
+
+				CoCo_batch.lineInit(prob_file_name);
+
+				long text_nanos = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				CoCo_batch.lineInit(model_file.getPath());
+
+				long model_nanos = System.nanoTime() - start;
+
+				System.out.print(
+					"  pass "
+						+ pass
+						+ ": text "
+						+ (text_nanos / 1000000.0)
+						+ " ms, compiled "
+						+ (model_nanos / 1000000.0)
+						+ " ms\n");
+			}
+		} catch (java.io.IOException e) {
+			System.out.print("ERROR! " + e.getMessage() + "\n\n");
+		}
+	}
+
+	/*
+	 *  Load the probability file and a synthetic copy scaled ten times
+	 *  with the text loader.
+	 */
+	static void loader() {
+		try {
+			java.io.File scaled_file =
+				java.io.File.createTempFile("coco", ".txt");
+
+			scaled_file.deleteOnExit();
+			scale(prob_file_name, scaled_file.getPath(), 10);
+
+			String file_name[] = {prob_file_name, scaled_file.getPath()};
+
+			/*
+			 *  Warm up on the large file so the 1x figure is not a cold
+			 *  JIT measurement.
+			 */
+			for (int pass = 0; pass < 3; pass++) {
+				sink += CoCo_batch.lineInit(file_name[1]).syndrome_count();
+			}
+
+			for (int loop = 0; loop < file_name.length; loop++) {
+				long bytes = new java.io.File(file_name[loop]).length();
+				long best = Long.MAX_VALUE;
+
+				for (int pass = 0; pass < 10; pass++) {
+					long start = System.nanoTime();
+
+					sink += CoCo_batch.lineInit(file_name[loop]).syndrome_count();
+					best = Math.min(best, System.nanoTime() - start);
+				}
+
+				System.out.print(
+					(loop == 0 ? "1x  " : "10x ")
+						+ bytes
+						+ " bytes: best of 10 "
+						+ (best / 1000000.0)
+						+ " ms, "
+						+ rate(bytes, best)
+						+ " MB/s\n");
+			}
+		} catch (java.io.IOException e) {
+			System.out.print("ERROR! " + e.getMessage() + "\n\n");
+		}
+	}
+
+	/*
+	 *  Write a probability file with 'scale' times the words and word
+	 *  pairs of another: each word w becomes w, w~1, ... w~(scale - 1),
+	 *  with the probabilities of w.
+	 */
+	static void scale(String in_file_name, String out_file_name, int scale)
+		throws java.io.IOException {
+		java.io.BufferedReader in =
+			new java.io.BufferedReader(new java.io.FileReader(in_file_name));
+		java.io.PrintWriter out =
+			new java.io.PrintWriter(
+				new java.io.BufferedWriter(new java.io.FileWriter(out_file_name)));
+
+		try {
+			for (int section = 1; section <= 3; section++) {
+				int count = Integer.parseInt(in.readLine().trim());
+
+				out.print((section == 1 ? count : count * scale) + "\n");
+
+				for (int loop = 0; loop < count; loop++) {
+					String line = in.readLine();
+
+					if (section == 1) {
+						out.print(line + "\n");
+
+						continue;
+					}
+
+					String token[] = line.split(",");
+
+					for (int copy = 0; copy < scale; copy++) {
+						String suffix = copy == 0 ? "" : "~" + copy;
+
+						out.print(token[0]);
+
+						for (int word = 1; word < token.length - 1; word++) {
+							out.print("," + token[word] + suffix);
+						}
+
+						out.print("," + token[token.length - 1] + "\n");
+					}
+				}
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	/*
+	 *  Classify a synthetic complaint file of a million lines, first in a
+	 *  plain loop on this thread, then with the pipeline at each worker
+	 *  count.  Every pipeline output is checked against the plain one.
+	 */
+	static void batch() {
+		try {
+			CoCo_model model = CoCo_batch.lineInit(prob_file_name);
+			java.io.File complaint_file =
+				java.io.File.createTempFile("coco", ".txt");
+			java.io.File classification_file =
+				java.io.File.createTempFile("coco", ".out");
+			int lines = 1000000;
+			int workers[] = {1, 4, 16, 32};
+
+			complaint_file.deleteOnExit();
+			classification_file.deleteOnExit();
+			complaints(model, complaint_file.getPath(), lines);
+
+			System.out.print(
+				"Batch: "
+					+ lines
+					+ " lines, "
+					+ Runtime.getRuntime().availableProcessors()
+					+ " processors\n");
+
+			for (int pass = 0; pass < 2; pass++) {
+				long start = System.nanoTime();
+				java.io.BufferedReader in =
+					new java.io.BufferedReader(
+						new java.io.FileReader(complaint_file));
+				java.io.BufferedWriter out =
+					new java.io.BufferedWriter(
+						new java.io.FileWriter(classification_file));
+				String line;
+
+				while ((line = in.readLine()) != null) {
+					out.write(model.classify_words(line) + "\n");
+				}
+
+				in.close();
+				out.close();
+
+				System.out.print(
+					"  pass "
+						+ pass
+						+ ": single thread "
+						+ rate(lines * 1000L, System.nanoTime() - start)
+						+ " K lines/s\n");
+			}
+
+			long expected = checksum(classification_file);
+
+			for (int loop = 0; loop < workers.length; loop++) {
+				long best = Long.MAX_VALUE;
+
+				for (int pass = 0; pass < 2; pass++) {
+					long start = System.nanoTime();
+					java.io.InputStream in =
+						new java.io.FileInputStream(complaint_file);
+					java.io.OutputStream out =
+						new java.io.BufferedOutputStream(
+							new java.io.FileOutputStream(classification_file));
+
+					new CoCo_pipeline(model, workers[loop]).run(in, out, null);
+					in.close();
+					out.close();
+					best = Math.min(best, System.nanoTime() - start);
+
+					if (checksum(classification_file) != expected) {
+						System.out.print("ERROR! pipeline output differs\n\n");
+					}
+				}
+
+				System.out.print(
+					"  "
+						+ workers[loop]
+						+ " workers: "
+						+ rate(lines * 1000L, best)
+						+ " K lines/s\n");
+			}
+		} catch (java.io.IOException e) {
+			System.out.print("ERROR! " + e.getMessage() + "\n\n");
+		}
+	}
+
+	/*
+	 *  Classify the same synthetic file with the reader/writer loop and
+	 *  with CoCo_mapped_batch, and check that the outputs agree.
+	 */
+	static void io() {
+		try {
+			CoCo_model model = CoCo_batch.lineInit(prob_file_name);
+			java.io.File complaint_file =
+				java.io.File.createTempFile("coco", ".txt");
+			java.io.File classification_file =
+				java.io.File.createTempFile("coco", ".out");
+			int lines = 1000000;
+
+			complaint_file.deleteOnExit();
+			classification_file.deleteOnExit();
+			complaints(model, complaint_file.getPath(), lines);
+
+			long bytes = complaint_file.length();
+			long expected = 0;
+
+			System.out.print("Batch I/O: " + lines + " lines, " + bytes + " bytes\n");
+
+			for (int pass = 0; pass < 6; pass++) {
+				long start = System.nanoTime();
+				java.io.BufferedReader in =
+					new java.io.BufferedReader(
+						new java.io.InputStreamReader(
+							new java.io.FileInputStream(complaint_file)));
+				java.io.BufferedWriter out =
+					new java.io.BufferedWriter(
+						new java.io.OutputStreamWriter(
+							new java.io.FileOutputStream(classification_file)));
+				String line;
+
+				while ((line = in.readLine()) != null) {
+					out.write(model.classify_words(line) + "\n");
+				}
+
+				in.close();
+				out.close();
+
+				long reader_nanos = System.nanoTime() - start;
+
+				expected = checksum(classification_file);
+				start = System.nanoTime();
+				new CoCo_mapped_batch(model).run(
+					complaint_file.getPath(),
+					classification_file.getPath());
+
+				long mapped_nanos = System.nanoTime() - start;
+
+				if (checksum(classification_file) != expected) {
+					System.out.print("ERROR! mapped output differs\n\n");
+				}
+
+				System.out.print(
+					"  pass "
+						+ pass
+						+ ": reader/writer "
+						+ rate(bytes, reader_nanos)
+						+ " MB/s, memory-mapped "
+						+ rate(bytes, mapped_nanos)
+						+ " MB/s\n");
+			}
+		} catch (java.io.IOException e) {
+			System.out.print("ERROR! " + e.getMessage() + "\n\n");
+		}
+	}
+
+	/*
+	 *  Classify a synthetic feed of repeated complaints line by line and
+	 *  with CoCo_dedup_batch, and check that the outputs agree.
+	 */
+	static void dedup() {
+		try {
+			CoCo_model model = CoCo_batch.lineInit(prob_file_name);
+			java.io.File pool_file = java.io.File.createTempFile("coco", ".txt");
+			java.io.File complaint_file =
+				java.io.File.createTempFile("coco", ".txt");
+			java.io.File classification_file =
+				java.io.File.createTempFile("coco", ".out");
+			int lines = 1000000;
+
+			pool_file.deleteOnExit();
+			complaint_file.deleteOnExit();
+			classification_file.deleteOnExit();
+			complaints(model, pool_file.getPath(), 5000);
+			feed(pool_file.getPath(), complaint_file.getPath(), lines);
+
+			for (int pass = 0; pass < 4; pass++) {
+				long start = System.nanoTime();
+				java.io.BufferedReader in =
+					new java.io.BufferedReader(
+						new java.io.InputStreamReader(
+							new java.io.FileInputStream(complaint_file)));
+				java.io.BufferedWriter out =
+					new java.io.BufferedWriter(
+						new java.io.OutputStreamWriter(
+							new java.io.FileOutputStream(classification_file)));
+				String line;
+
+				while ((line = in.readLine()) != null) {
+					out.write(model.classify_words(line) + "\n");
+				}
+
+				in.close();
+				out.close();
+
+				long plain_nanos = System.nanoTime() - start;
+				long expected = checksum(classification_file);
+				CoCo_dedup_batch dedup_batch = new CoCo_dedup_batch(model);
+				java.io.InputStream dedup_in =
+					new java.io.FileInputStream(complaint_file);
+				java.io.OutputStream dedup_out =
+					new java.io.BufferedOutputStream(
+						new java.io.FileOutputStream(classification_file));
+
+				start = System.nanoTime();
+				dedup_batch.run(dedup_in, dedup_out);
+				dedup_in.close();
+				dedup_out.close();
+
+				long dedup_nanos = System.nanoTime() - start;
+
+				if (checksum(classification_file) != expected) {
+					System.out.print("ERROR! dedup output differs\n\n");
+				}
+
+				System.out.print(
+					"  pass "
+						+ pass
+						+ ": "
+						+ lines
+						+ " lines, "
+						+ dedup_batch.distinct()
+						+ " distinct: every line "
+						+ rate(lines * 1000L, plain_nanos)
+						+ " K lines/s, dedup "
+						+ rate(lines * 1000L, dedup_nanos)
+						+ " K lines/s\n");
+			}
+		} catch (java.io.IOException e) {
+			System.out.print("ERROR! " + e.getMessage() + "\n\n");
+		}
+	}
+
+	/*
+	 *  Classify a skewed stream of interactive complaints, some of them
+	 *  in upper case and every tenth with a one-off typo appended,
+	 *  directly and through a CoCo_line_cache of the default size, and
+	 *  check that the results agree.
+	 */
+	static void cache() {
+		CoCo_model model = CoCo_batch.lineInit(prob_file_name);
+		Random random = new Random(3);
+		String pool[] = new String[5000];
+		String stream[] = new String[1000000];
+		int loop;
+
+		for (loop = 0; loop < pool.length; loop++) {
+			StringBuffer sbuff = new StringBuffer();
+			int words = 1 + random.nextInt(4);
+
+			for (int word = 0; word < words; word++) {
+				if (word > 0) {
+					sbuff.append(random.nextBoolean() ? " " : ", ");
+				}
+
+				sbuff.append(model.word(random.nextInt(model.word_count())));
+			}
+
+			pool[loop] = sbuff.toString();
+		}
+
+		for (loop = 0; loop < stream.length; loop++) {
+			double r = random.nextDouble();
+
+			stream[loop] = pool[(int) (pool.length * r * r * r * r)];
+
+			if (random.nextInt(10) == 0) {
+				stream[loop] += " q" + loop;
+			} else if (random.nextInt(4) == 0) {
+				stream[loop] = stream[loop].toUpperCase();
+			}
+		}
+
+		for (int pass = 0; pass < 4; pass++) {
+			CoCo_line_cache cache = new CoCo_line_cache(CoCo_batch.line_cache_size);
+			long start = System.nanoTime();
+
+			for (loop = 0; loop < stream.length; loop++) {
+				sink += model.classify(stream[loop]).length();
+			}
+
+			long plain_nanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+
+			for (loop = 0; loop < stream.length; loop++) {
+				sink += cache.classify(model, stream[loop]).length();
+			}
+
+			long cache_nanos = System.nanoTime() - start;
+
+			for (loop = 0; loop < stream.length; loop += 97) {
+				if (!cache.classify(model, stream[loop]).equals(
+					model.classify(stream[loop]))) {
+					System.out.print("ERROR! cached result differs\n\n");
+
+					break;
+				}
+			}
+
+			System.out.print(
+				"  pass "
+					+ pass
+					+ ": uncached "
+					+ rate(stream.length * 1000L, plain_nanos)
+					+ " K/s, cached "
+					+ rate(stream.length * 1000L, cache_nanos)
+					+ " K/s, hit rate "
+					+ (cache.hits() * 100 / (cache.hits() + cache.misses()))
+					+ "%\n    "
+					+ cache
+					+ "\n");
+		}
+	}
+
+	/*
+	 *  Classify a synthetic file with the pipeline (one worker) from
+	 *  plain input, from gzip input inflated on its own thread
+	 *  (CoCo_compression) and inflated inline on the reader thread, and
+	 *  from gzip input into gzip output, and check that the outputs
+	 *  agree.  Rates are in MB/s of uncompressed complaints.
+	 */
+	static void gzip() {
+		try {
+			CoCo_model model = CoCo_batch.lineInit(prob_file_name);
+			java.io.File complaint_file =
+				java.io.File.createTempFile("coco", ".txt");
+			java.io.File compressed_file =
+				java.io.File.createTempFile("coco", ".txt.gz");
+			java.io.File classification_file =
+				java.io.File.createTempFile("coco", ".out");
+			int lines = 1000000;
+
+			complaint_file.deleteOnExit();
+			compressed_file.deleteOnExit();
+			classification_file.deleteOnExit();
+			complaints(model, complaint_file.getPath(), lines);
+
+			java.io.InputStream in = new java.io.FileInputStream(complaint_file);
+			java.io.OutputStream out =
+				new java.util.zip.GZIPOutputStream(
+					new java.io.FileOutputStream(compressed_file),
+					1 << 16);
+			byte buffer[] = new byte[1 << 16];
+			int count;
+
+			while ((count = in.read(buffer)) > 0) {
+				out.write(buffer, 0, count);
+			}
+
+			in.close();
+			out.close();
+
+			long bytes = complaint_file.length();
+
+			System.out.print(
+				"Batch gzip: "
+					+ lines
+					+ " lines, "
+					+ bytes
+					+ " bytes, "
+					+ compressed_file.length()
+					+ " compressed\n");
+
+			for (int pass = 0; pass < 4; pass++) {
+				long nanos[] = new long[4];
+				long expected = 0;
+
+				for (int loop = 0; loop < nanos.length; loop++) {
+					long start = System.nanoTime();
+
+					if (loop == 0) {
+						in = new java.io.FileInputStream(complaint_file);
+					} else if (loop == 2) {
+						in =
+							new java.util.zip.GZIPInputStream(
+								new java.io.FileInputStream(compressed_file),
+								1 << 16);
+					} else {
+						in = CoCo_compression.open(compressed_file.getPath());
+					}
+
+					out =
+						CoCo_compression.create(
+							classification_file.getPath(),
+							loop == 3);
+					new CoCo_pipeline(model, 1).run(in, out, null);
+					in.close();
+					out.close();
+					nanos[loop] = System.nanoTime() - start;
+
+					long checksum;
+
+					if (loop == 3) {
+						java.io.File inflated =
+							java.io.File.createTempFile("coco", ".out");
+
+						inflated.deleteOnExit();
+						in = CoCo_compression.open(classification_file.getPath());
+						out = new java.io.FileOutputStream(inflated);
+
+						while ((count = in.read(buffer)) > 0) {
+							out.write(buffer, 0, count);
+						}
+
+						in.close();
+						out.close();
+						checksum = checksum(inflated);
+						inflated.delete();
+					} else {
+						checksum = checksum(classification_file);
+					}
+
+					if (loop == 0) {
+						expected = checksum;
+					} else if (checksum != expected) {
+						System.out.print("ERROR! gzip output differs\n\n");
+					}
+				}
+
+				System.out.print(
+					"  pass "
+						+ pass
+						+ ": plain "
+						+ rate(bytes, nanos[0])
+						+ " MB/s, gzip in "
+						+ rate(bytes, nanos[1])
+						+ " MB/s, gzip in (inline) "
+						+ rate(bytes, nanos[2])
+						+ " MB/s, gzip in and out "
+						+ rate(bytes, nanos[3])
+						+ " MB/s\n");
+			}
+		} catch (java.io.IOException e) {
+			System.out.print("ERROR! " + e.getMessage() + "\n\n");
+		}
+	}
+
+	/*
+	 *  Write the posteriors of a synthetic file both as a CSV of doubles
+	 *  and as a columnar posterior file, then sum every syndrome's
+	 *  probabilities from each and check that the sums agree.
+	 */
+	static void posterior() {
+		try {
+			CoCo_model model = CoCo_batch.lineInit(prob_file_name);
+			java.io.File complaint_file =
+				java.io.File.createTempFile("coco", ".txt");
+			java.io.File csv_file = java.io.File.createTempFile("coco", ".csv");
+			java.io.File posterior_file =
+				java.io.File.createTempFile("coco", ".post");
+			int lines = 1000000;
+			int syndrome_count = model.syndrome_count();
+
+			complaint_file.deleteOnExit();
+			csv_file.deleteOnExit();
+			posterior_file.deleteOnExit();
+			complaints(model, complaint_file.getPath(), lines);
+
+			java.io.BufferedReader in =
+				new java.io.BufferedReader(new java.io.FileReader(complaint_file));
+			java.io.BufferedWriter csv =
+				new java.io.BufferedWriter(new java.io.FileWriter(csv_file));
+			CoCo_posterior_writer writer =
+				new CoCo_posterior_writer(posterior_file.getPath(), model);
+			String line;
+
+			while ((line = in.readLine()) != null) {
+				double complaint_prob[] =
+					model.compute_posterior_probs(
+						CoCo_tokenizer.BATCH.words(model.vocabulary(), line));
+
+				for (int loop = 0; loop < syndrome_count; loop++) {
+					if (loop > 0) {
+						csv.write(',');
+					}
+
+					csv.write(String.valueOf(complaint_prob[loop]));
+				}
+
+				csv.write('\n');
+				writer.add(complaint_prob);
+			}
+
+			in.close();
+			csv.close();
+			writer.finish();
+
+			System.out.print(
+				"Posteriors: "
+					+ lines
+					+ " records, "
+					+ syndrome_count
+					+ " syndromes, CSV "
+					+ csv_file.length()
+					+ " bytes, columnar "
+					+ posterior_file.length()
+					+ " bytes\n");
+
+			for (int pass = 0; pass < 4; pass++) {
+				double csv_sum[] = new double[syndrome_count];
+				double column_sum[] = new double[syndrome_count];
+				long start = System.nanoTime();
+
+				in = new java.io.BufferedReader(new java.io.FileReader(csv_file));
+
+				while ((line = in.readLine()) != null) {
+					int field_start = 0;
+
+					for (int loop = 0; loop < syndrome_count; loop++) {
+						int field_end = line.indexOf(',', field_start);
+
+						if (field_end < 0) {
+							field_end = line.length();
+						}
+
+						csv_sum[loop] +=
+							Double.parseDouble(line.substring(field_start, field_end));
+						field_start = field_end + 1;
+					}
+				}
+
+				in.close();
+
+				long csv_nanos = System.nanoTime() - start;
+
+				start = System.nanoTime();
+
+				CoCo_posterior_file columns =
+					CoCo_posterior_file.open(posterior_file.getPath());
+
+				for (int loop = 0; loop < syndrome_count; loop++) {
+					column_sum[loop] = columns.sum(loop);
+				}
+
+				long column_nanos = System.nanoTime() - start;
+
+				for (int loop = 0; loop < syndrome_count; loop++) {
+					if (Math.abs(csv_sum[loop] - column_sum[loop])
+						> 1e-3 * Math.max(1.0, csv_sum[loop])) {
+						System.out.print("ERROR! column sums differ\n\n");
+
+						break;
+					}
+				}
+
+				System.out.print(
+					"  pass "
+						+ pass
+						+ ": sum of every column from CSV "
+						+ (csv_nanos / 1000000)
+						+ " ms, from the columnar file "
+						+ (column_nanos / 1000000)
+						+ " ms\n");
+			}
+		} catch (java.io.IOException e) {
+			System.out.print("ERROR! " + e.getMessage() + "\n\n");
+		}
+	}
+
+	/*
+	 *  Train on a synthetic labelled corpus with one thread and then with
+	 *  the fork-join trainer at 1, 2, 4 ... threads and the processor
+	 *  count.  Every probability file is checked against the one-thread
+	 *  file.
+	 */
+	static void train() {
+		try {
+			CoCo_model model = CoCo_batch.lineInit(prob_file_name);
+			java.io.File train_file = java.io.File.createTempFile("coco", ".txt");
+			java.io.File prob_file = java.io.File.createTempFile("coco", ".out");
+			int processors = Runtime.getRuntime().availableProcessors();
+			List<Integer> threads = new ArrayList<Integer>();
+			long sequential = Long.MAX_VALUE;
+			long expected = 0;
+
+			train_file.deleteOnExit();
+			prob_file.deleteOnExit();
+			labelled(model, train_file.getPath(), (long) train_megabytes << 20);
+
+			for (int count = 1; count < processors; count *= 2) {
+				threads.add(Integer.valueOf(count));
+			}
+
+			threads.add(Integer.valueOf(processors));
+
+			System.out.print(
+				"Train: "
+					+ (train_file.length() >> 20)
+					+ " MB, "
+					+ processors
+					+ " processors\n");
+
+			for (int pass = 0; pass < 2; pass++) {
+				long start = System.nanoTime();
+				CoCo_trainer trainer = new CoCo_trainer();
+
+				trainer.read(train_file.getPath());
+				trainer.write(prob_file.getPath());
+				sequential = Math.min(sequential, System.nanoTime() - start);
+			}
+
+			expected = checksum(prob_file);
+			System.out.print(
+				"  single thread: "
+					+ (sequential / 1000000)
+					+ " ms, "
+					+ rate(train_file.length(), sequential)
+					+ " MB/s\n");
+
+			for (int loop = 0; loop < threads.size(); loop++) {
+				int count = threads.get(loop).intValue();
+				long best = Long.MAX_VALUE;
+
+				for (int pass = 0; pass < 2; pass++) {
+					long start = System.nanoTime();
+
+					CoCo_parallel_trainer.read(train_file.getPath(), count)
+						.write(prob_file.getPath());
+					best = Math.min(best, System.nanoTime() - start);
+
+					if (checksum(prob_file) != expected) {
+						System.out.print("ERROR! parallel probability file differs\n\n");
+					}
+				}
+
+				System.out.print(
+					"  "
+						+ count
+						+ " threads: "
+						+ (best / 1000000)
+						+ " ms, "
+						+ rate(train_file.length(), best)
+						+ " MB/s, speedup "
+						+ Math.round(sequential * 100.0 / best) / 100.0
+						+ "\n");
+			}
+		} catch (java.io.IOException e) {
+			System.out.print("ERROR! " + e.getMessage() + "\n\n");
+		}
+	}
+
+	/*
+	 *  Write about 'bytes' bytes of training lines: complaints of one to
+	 *  eight words, mostly from the model's vocabulary with a skew towards
+	 *  its first words and the rest from a long tail of made-up words,
+	 *  each labelled with one to three of the model's syndromes.
+	 */
+	static void labelled(CoCo_model model, String file_name, long bytes)
+		throws java.io.IOException {
+		Random random = new Random(3);
+		java.io.BufferedWriter out =
+			new java.io.BufferedWriter(new java.io.FileWriter(file_name));
+		StringBuffer line = new StringBuffer();
+		long written = 0;
+
+		while (written < bytes) {
+			int words = 1 + random.nextInt(8);
+			int syndromes = 1 + random.nextInt(3);
+
+			line.setLength(0);
+
+			for (int word = 0; word < words; word++) {
+				double r = random.nextDouble();
+
+				if (word > 0) {
+					line.append(' ');
+				}
+
+				if (random.nextInt(5) == 0) {
+					line.append("zz").append((int) (20000 * r * r));
+				} else {
+					line.append(model.word((int) (model.word_count() * r * r)));
+				}
+			}
+
+			for (int syndrome = 0; syndrome < syndromes; syndrome++) {
+				line.append(',').append(
+					model.syndrome(random.nextInt(model.syndrome_count())));
+			}
+
+			line.append('\n');
+			out.write(line.toString());
+			written += line.length();
+		}
+
+		out.close();
+	}
+
+	/*
+	 *  Write 'lines' complaints drawn from the lines of a pool file with a
+	 *  skew towards the first ones, as in a real feed, some of them with
+	 *  extra blanks.
+	 */
+	static void feed(String pool_file_name, String file_name, int lines)
+		throws java.io.IOException {
+		Random random = new Random(2);
+		List<String> pool = new ArrayList<String>();
+		java.io.BufferedReader in =
+			new java.io.BufferedReader(new java.io.FileReader(pool_file_name));
+		String line;
+
+		while ((line = in.readLine()) != null) {
+			pool.add(line);
+		}
+
+		in.close();
+
+		java.io.BufferedWriter out =
+			new java.io.BufferedWriter(new java.io.FileWriter(file_name));
+
+		for (int loop = 0; loop < lines; loop++) {
+			double r = random.nextDouble();
+
+			line = pool.get((int) (pool.size() * r * r * r));
+
+			if (random.nextInt(20) == 0) {
+				line = " " + line.replace(" ", "  ") + "\t";
+			}
+
+			out.write(line);
+			out.write('\n');
+		}
+
+		out.close();
+	}
+
+	/*
+	 *  Write 'lines' complaints of one to eight words drawn from the
+	 *  model's vocabulary, with a few unknown words mixed in.
+	 */
+	static void complaints(CoCo_model model, String file_name, int lines)
+		throws java.io.IOException {
+		Random random = new Random(1);
+		java.io.BufferedWriter out =
+			new java.io.BufferedWriter(new java.io.FileWriter(file_name));
+
+		for (int loop = 0; loop < lines; loop++) {
+			int words = 1 + random.nextInt(8);
+
+			for (int word = 0; word < words; word++) {
+				if (word > 0) {
+					out.write(' ');
+				}
+
+				if (random.nextInt(10) == 0) {
+					out.write("zz" + random.nextInt(1000));
+				} else {
+					out.write(model.word(random.nextInt(model.word_count())));
+				}
+			}
+
+			out.write('\n');
+		}
+
+		out.close();
+	}
+
+	/*
+	 *  Order-sensitive checksum of a file's lines.
+	 */
+	static long checksum(java.io.File file) throws java.io.IOException {
+		java.io.BufferedReader in =
+			new java.io.BufferedReader(new java.io.FileReader(file));
+		long checksum = 0;
+		String line;
+
+		while ((line = in.readLine()) != null) {
+			checksum = checksum * 31 + line.hashCode();
+		}
+
+		in.close();
+
+		return checksum;
+	}
+
+	/*
+	 *  Millions of operations per second, to one decimal place.
+	 */
+	static String rate(long operations, long nanos) {
+		return String.valueOf(Math.round(operations * 10000.0 / nanos) / 10.0);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.*;
+
+/*
+ *  Sparse store for the 2-tuple (word pair) probabilities.
+ *  Only the entries listed in the probability file are kept, in
+ *  compressed sparse row form: the entries of word pair p are found at
+ *  [row_start[p], row_start[p + 1]) in the syndrome and prob arrays.
+ *  A row holds at most one entry per syndrome, so reading a row is
+ *  constant time no matter how large the vocabulary gets.
+ *  The arrays are held as buffers so that a table read from a compiled
+ *  model file is used in place.
+ */
+/**
+ *  Immutable word pair by syndrome probability table.
+ */
+final class CoCo_bigram_table {
+
+	private final int pair_count;
+	private final IntBuffer row_start;
+	private final IntBuffer syndrome;
+	private final FloatBuffer prob;
+
+	/**
+	 *  Builds the table from the entries of a probability file, given in
+	 *  any order.  If an entry is listed twice, the later one wins.
+	 *
+	 * @param  pair_count      number of word pair ids
+	 * @param  entry_count     number of entries in the arrays below
+	 * @param  entry_pair      word pair id of each entry
+	 * @param  entry_syndrome  syndrome id of each entry
+	 * @param  entry_prob      probability of each entry
+	 */
+	CoCo_bigram_table(
+		int pair_count,
+		int entry_count,
+		int[] entry_pair,
+		int[] entry_syndrome,
+		double[] entry_prob) {
+		int next[] = new int[pair_count + 1];
+		int row_start[] = new int[pair_count + 1];
+		int syndrome[] = new int[entry_count];
+		float prob[] = new float[entry_count];
+		int loop;
+
+		for (loop = 0; loop < entry_count; loop++) {
+			row_start[entry_pair[loop] + 1]++;
+		}
+
+		for (loop = 0; loop < pair_count; loop++) {
+			row_start[loop + 1] += row_start[loop];
+			next[loop] = row_start[loop];
+		}
+
+		for (loop = 0; loop < entry_count; loop++) {
+			int slot = next[entry_pair[loop]]++;
+
+			syndrome[slot] = entry_syndrome[loop];
+			prob[slot] = (float) entry_prob[loop];
+		}
+
+		this.pair_count = pair_count;
+		this.row_start = IntBuffer.wrap(row_start);
+		this.syndrome = IntBuffer.wrap(syndrome);
+		this.prob = FloatBuffer.wrap(prob);
+	}
+
+	/**
+	 *  Maps a table written by write().
+	 *
+	 * @param  file  the model file
+	 */
+	CoCo_bigram_table(CoCo_model_file file) {
+		row_start = file.read_ints();
+		syndrome = file.read_ints();
+		prob = file.read_floats();
+		pair_count = row_start.limit() - 1;
+	}
+
+	/**
+	 *  Writes the table to a model file.
+	 *
+	 * @param  file             the model file
+	 * @exception  IOException  if the file can not be written
+	 */
+	void write(CoCo_model_file file) throws IOException {
+		file.write_ints(row_start);
+		file.write_ints(syndrome);
+		file.write_floats(prob);
+	}
+
+	/**
+	 *  Number of word pair ids.
+	 *
+	 * @return    the pair count
+	 */
+	int pair_count() {
+		return pair_count;
+	}
+
+	/**
+	 *  Number of stored entries.
+	 *
+	 * @return    the entry count
+	 */
+	int entry_count() {
+		return prob.limit();
+	}
+
+	/**
+	 *  First entry of a word pair.
+	 *
+	 * @param  pair  word pair id
+	 * @return       index of the first entry
+	 */
+	int row_start(int pair) {
+		return row_start.get(pair);
+	}
+
+	/**
+	 *  One past the last entry of a word pair.
+	 *
+	 * @param  pair  word pair id
+	 * @return       index one past the last entry
+	 */
+	int row_end(int pair) {
+		return row_start.get(pair + 1);
+	}
+
+	/**
+	 *  Syndrome id of an entry.
+	 *
+	 * @param  entry  entry index
+	 * @return        the syndrome id
+	 */
+	int syndrome(int entry) {
+		return syndrome.get(entry);
+	}
+
+	/**
+	 *  Probability of an entry.
+	 *
+	 * @param  entry  entry index
+	 * @return        the probability
+	 */
+	float prob(int entry) {
+		return prob.get(entry);
+	}
+}
@@ -0,0 +1,300 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ *  Checkpoints for resumable batch runs.
+ *  While a batch run writes the classification file, it reports after
+ *  every chunk how far it has got: the input byte offset, the output
+ *  byte offset and the record count.  Every 'interval' input bytes the
+ *  output written so far is flushed and forced to disk, and only then
+ *  is a checkpoint naming those three numbers written next to it
+ *  (<classification file>.ckpt).  The checkpoint is written to a
+ *  temporary file and renamed into place, so the output up to a
+ *  checkpoint's offset is committed in one atomic step: a crash leaves
+ *  either the old checkpoint or the new one, and the output up to
+ *  either of them is on disk.
+ *  A checkpoint also names the model it was written with: the path,
+ *  length and modification time of the probability file and the
+ *  weights, threshold and default probability.  A run that finds a
+ *  checkpoint for the same complaint file (same length and modification
+ *  time) and the same model cuts the classification file back to the
+ *  checkpoint's output offset, skips the input up to its input offset
+ *  and carries on from there; with another model (after a retrain, say)
+ *  it starts over, so a classification file never mixes two models.
+ *  The checkpoint is removed when the run completes.
+ */
+/**
+ *  Batch run checkpoint and the output it guards.
+ */
+final class CoCo_checkpoint {
+
+	/*
+	 *  Input bytes between two checkpoints.
+	 */
+	static long interval = 1L << 26;
+
+	private final String checkpoint_file_name;
+	private final File complaint_file;
+	private final Properties model;
+	private final RandomAccessFile classification_file;
+	private final FileChannel channel;
+	private final OutputStream output;
+	private final long resume_input;
+	private final long resume_output;
+	private final long resume_records;
+	private long input_offset;
+	private long output_offset;
+	private long records;
+	private long committed_input;
+
+	/**
+	 *  Opens the classification file, at the last checkpoint if there is
+	 *  one for this complaint file and at the start otherwise.
+	 *
+	 * @param  complaint_file_name       the complaint file
+	 * @param  classification_file_name  the classification file
+	 * @param  prob_file_name            the probability file of the model
+	 *      the run classifies with
+	 * @exception  IOException           if the classification file can not
+	 *      be opened
+	 */
+	CoCo_checkpoint(
+		String complaint_file_name,
+		String classification_file_name,
+		String prob_file_name)
+		throws IOException {
+		Properties checkpoint = new Properties();
+
+		checkpoint_file_name = classification_file_name + ".ckpt";
+		complaint_file = new File(complaint_file_name);
+		model = model(prob_file_name);
+
+		try {
+			InputStream in = new FileInputStream(checkpoint_file_name);
+
+			try {
+				checkpoint.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+		}
+
+		classification_file = new RandomAccessFile(classification_file_name, "rw");
+
+		if (matches(checkpoint)
+			&& classification_file.length()
+				>= number(checkpoint, "output_offset")) {
+			resume_input = number(checkpoint, "input_offset");
+			resume_output = number(checkpoint, "output_offset");
+			resume_records = number(checkpoint, "records");
+		} else {
+			resume_input = 0;
+			resume_output = 0;
+			resume_records = 0;
+		}
+
+		classification_file.setLength(resume_output);
+		channel = classification_file.getChannel();
+		channel.position(resume_output);
+		output =
+			new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+		input_offset = committed_input = resume_input;
+		output_offset = resume_output;
+		records = resume_records;
+	}
+
+	/**
+	 *  Input byte offset to resume from.
+	 *
+	 * @return    the offset (0 for a fresh run)
+	 */
+	long resume_input() {
+		return resume_input;
+	}
+
+	/**
+	 *  Number of records already classified before the resume point.
+	 *
+	 * @return    the record count (0 for a fresh run)
+	 */
+	long resume_records() {
+		return resume_records;
+	}
+
+	/**
+	 *  Buffered output positioned at the resume point.
+	 *
+	 * @return    the output stream
+	 */
+	OutputStream output() {
+		return output;
+	}
+
+	/**
+	 *  The classification file's channel, positioned at the resume point,
+	 *  for writers that do not use output().
+	 *
+	 * @return    the channel
+	 */
+	FileChannel channel() {
+		return channel;
+	}
+
+	/**
+	 *  Records that a run of records has been written, and commits a
+	 *  checkpoint if 'interval' input bytes have gone by since the last.
+	 *
+	 * @param  input_bytes      input bytes the records took
+	 * @param  output_bytes     output bytes written for them
+	 * @param  count            number of records
+	 * @exception  IOException  if the checkpoint can not be written
+	 */
+	void advance(long input_bytes, long output_bytes, long count)
+		throws IOException {
+		input_offset += input_bytes;
+		output_offset += output_bytes;
+		records += count;
+
+		if (input_offset - committed_input >= interval) {
+			commit();
+		}
+	}
+
+	/**
+	 *  Ends a completed run: flushes and closes the output and removes
+	 *  the checkpoint.
+	 *
+	 * @return                  the total number of records
+	 * @exception  IOException  if the output can not be written
+	 */
+	long finish() throws IOException {
+		output.flush();
+		channel.force(false);
+		classification_file.close();
+		new File(checkpoint_file_name).delete();
+
+		return records;
+	}
+
+	/**
+	 *  Closes the output of a run that did not complete.  The last
+	 *  checkpoint stays, so the next run resumes from it.
+	 */
+	void abandon() {
+		try {
+			classification_file.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private void commit() throws IOException {
+		Properties checkpoint = new Properties();
+		File temp = new File(checkpoint_file_name + ".tmp");
+
+		output.flush();
+		channel.force(false);
+
+		checkpoint.setProperty(
+			"complaint_length",
+			String.valueOf(complaint_file.length()));
+		checkpoint.setProperty(
+			"complaint_modified",
+			String.valueOf(complaint_file.lastModified()));
+		checkpoint.putAll(model);
+		checkpoint.setProperty("input_offset", String.valueOf(input_offset));
+		checkpoint.setProperty("output_offset", String.valueOf(output_offset));
+		checkpoint.setProperty("records", String.valueOf(records));
+
+		FileOutputStream out = new FileOutputStream(temp);
+
+		try {
+			checkpoint.store(out, "CoCo batch checkpoint");
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		Files.move(
+			temp.toPath(),
+			Paths.get(checkpoint_file_name),
+			StandardCopyOption.ATOMIC_MOVE,
+			StandardCopyOption.REPLACE_EXISTING);
+		committed_input = input_offset;
+	}
+
+	/*
+	 *  The properties that name the model a run classifies with.  Doubles
+	 *  are kept as their exact decimal strings.
+	 */
+	private static Properties model(String prob_file_name) {
+		Properties model = new Properties();
+		File prob_file = new File(prob_file_name).getAbsoluteFile();
+
+		model.setProperty("model_file", prob_file.getPath());
+		model.setProperty("model_length", String.valueOf(prob_file.length()));
+		model.setProperty(
+			"model_modified",
+			String.valueOf(prob_file.lastModified()));
+		model.setProperty(
+			"weight_1_tuple",
+			String.valueOf(CoCo_batch.weight_1_tuple));
+		model.setProperty(
+			"weight_2_tuple",
+			String.valueOf(CoCo_batch.weight_2_tuple));
+		model.setProperty("threshold", String.valueOf(CoCo_batch.threshold));
+		model.setProperty("default_prob", String.valueOf(CoCo_batch.default_prob));
+
+		return model;
+	}
+
+	/*
+	 *  Whether a checkpoint was written for the current complaint file
+	 *  and model.
+	 */
+	private boolean matches(Properties checkpoint) {
+		for (String key : model.stringPropertyNames()) {
+			if (!model.getProperty(key).equals(checkpoint.getProperty(key))) {
+				return false;
+			}
+		}
+
+		return number(checkpoint, "input_offset") >= 0
+			&& number(checkpoint, "output_offset") >= 0
+			&& number(checkpoint, "records") >= 0
+			&& number(checkpoint, "complaint_length") == complaint_file.length()
+			&& number(checkpoint, "complaint_modified")
+				== complaint_file.lastModified();
+	}
+
+	private static long number(Properties checkpoint, String key) {
+		try {
+			return Long.parseLong(checkpoint.getProperty(key, "-1"));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/*
+ *  Compressed complaint and classification files.
+ *  A complaint file is recognized by its first bytes, not by its name:
+ *  1f 8b starts a gzip file and 28 b5 2f fd a zstd frame; anything else
+ *  is read as it is.  A gzip file is inflated on a thread of its own
+ *  that hands BLOCK_BYTES blocks to the reader through a queue of
+ *  BLOCKS blocks, so decompression runs alongside the classification
+ *  instead of in front of it.  Concatenated gzip members are read as one
+ *  stream, as gunzip does.
+ *  The JDK has no zstd codec, so a zstd file is refused with an error
+ *  that says so rather than being classified as garbage.
+ *  Classification files are gzip-compressed on request.
+ */
+/**
+ *  Opens complaint files whatever their compression.
+ */
+final class CoCo_compression {
+
+	static final int NONE = 0;
+	static final int GZIP = 1;
+	static final int ZSTD = 2;
+
+	private static final int BLOCK_BYTES = 1 << 16;
+	private static final int BLOCKS = 8;
+
+	/*
+	 *  Reader side of the inflater thread.
+	 */
+	private static final class Inflated extends InputStream {
+
+		private static final byte END[] = new byte[0];
+
+		private final BlockingQueue<byte[]> blocks =
+			new ArrayBlockingQueue<byte[]>(BLOCKS);
+		private final InputStream source;
+		private final Thread inflater;
+		private volatile IOException failure = null;
+		private byte block[] = new byte[0];
+		private int position = 0;
+		private boolean eof = false;
+
+		Inflated(InputStream source) {
+			this.source = source;
+			inflater =
+				new Thread(new Runnable() {
+					public void run() {
+						inflate();
+					}
+				}, "CoCo inflater");
+			inflater.setDaemon(true);
+			inflater.start();
+		}
+
+		/*
+		 *  Inflater thread body.
+		 */
+		private void inflate() {
+			try {
+				while (true) {
+					byte buffer[] = new byte[BLOCK_BYTES];
+					int count = 0;
+					int read = 0;
+
+					while (count < buffer.length
+						&& (read = source.read(buffer, count, buffer.length - count))
+							> 0) {
+						count += read;
+					}
+
+					if (count > 0) {
+						blocks.put(
+							count == buffer.length
+								? buffer
+								: java.util.Arrays.copyOf(buffer, count));
+					}
+
+					if (read < 0) {
+						break;
+					}
+				}
+			} catch (IOException e) {
+				failure = e;
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+				blocks.put(END);
+			} catch (InterruptedException e) {
+			}
+		}
+
+		private boolean next_block() throws IOException {
+			if (eof) {
+				return false;
+			}
+
+			try {
+				block = blocks.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+
+			position = 0;
+
+			if (block == END) {
+				eof = true;
+
+				if (failure != null) {
+					throw failure;
+				}
+
+				return false;
+			}
+
+			return true;
+		}
+
+		public int read() throws IOException {
+			if (position == block.length && !next_block()) {
+				return -1;
+			}
+
+			return block[position++] & 0xff;
+		}
+
+		public int read(byte b[], int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			if (position == block.length && !next_block()) {
+				return -1;
+			}
+
+			int count = Math.min(len, block.length - position);
+
+			System.arraycopy(block, position, b, off, count);
+			position += count;
+
+			return count;
+		}
+
+		public void close() throws IOException {
+			inflater.interrupt();
+			source.close();
+		}
+	}
+
+	private CoCo_compression() {
+	}
+
+	/**
+	 *  Tells the compression of a file from its first bytes.
+	 *
+	 * @param  file_name        the file
+	 * @return                  NONE, GZIP or ZSTD
+	 * @exception  IOException  if the file can not be read
+	 */
+	static int format(String file_name) throws IOException {
+		InputStream in = new FileInputStream(file_name);
+		byte magic[] = new byte[4];
+		int count = 0;
+		int read;
+
+		try {
+			while (count < magic.length
+				&& (read = in.read(magic, count, magic.length - count)) > 0) {
+				count += read;
+			}
+		} finally {
+			in.close();
+		}
+
+		if (count >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+			return GZIP;
+		}
+
+		if (count == 4
+			&& (magic[0] & 0xff) == 0x28
+			&& (magic[1] & 0xff) == 0xb5
+			&& (magic[2] & 0xff) == 0x2f
+			&& (magic[3] & 0xff) == 0xfd) {
+			return ZSTD;
+		}
+
+		return NONE;
+	}
+
+	/**
+	 *  Whether a file is compressed.  A file that can not be read is
+	 *  taken as uncompressed, so opening it reports the error.
+	 *
+	 * @param  file_name  the file
+	 * @return            true for a gzip or zstd file
+	 */
+	static boolean compressed(String file_name) {
+		try {
+			return format(file_name) != NONE;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 *  Opens a complaint file, decompressing it if need be.
+	 *
+	 * @param  file_name        the file
+	 * @return                  its uncompressed bytes
+	 * @exception  IOException  if the file can not be read or is in a
+	 *      format that is not supported
+	 */
+	static InputStream open(String file_name) throws IOException {
+		switch (format(file_name)) {
+			case GZIP:
+				return new Inflated(
+					new GZIPInputStream(new FileInputStream(file_name), BLOCK_BYTES));
+			case ZSTD:
+				throw new IOException(
+					"CoCo: "
+						+ file_name
+						+ " is zstd-compressed; zstd is not supported (the JDK has"
+						+ " no zstd codec), decompress it first");
+			default:
+				return new FileInputStream(file_name);
+		}
+	}
+
+	/**
+	 *  Creates a classification file.
+	 *
+	 * @param  file_name        the file
+	 * @param  gzip             whether to gzip-compress it
+	 * @return                  a buffered stream to write to
+	 * @exception  IOException  if the file can not be created
+	 */
+	static OutputStream create(String file_name, boolean gzip)
+		throws IOException {
+		OutputStream out = new FileOutputStream(file_name);
+
+		return gzip
+			? new BufferedOutputStream(new GZIPOutputStream(out, BLOCK_BYTES), BLOCK_BYTES)
+			: new BufferedOutputStream(out, BLOCK_BYTES);
+	}
+}
@@ -0,0 +1,228 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/*
+ *  Deduplicating batch classifier.
+ *  Chief complaint feeds repeat the same few complaints over and over,
+ *  so each line is normalized and looked up in a table of the distinct
+ *  complaints seen so far; only a complaint that is not in the table
+ *  yet is scored, and every later occurrence reuses its result.  The
+ *  output still has one line per input line, in input order.
+ *  Normalization drops leading and trailing blanks and turns every run
+ *  of spaces and tabs into one space.  The batch tokenizer splits on
+ *  exactly those characters and keeps case, so two lines with the same
+ *  normalized form have the same words and get the same classification;
+ *  the output is the same as without deduplication.
+ *  The table also counts the occurrences of every distinct complaint,
+ *  which write_frequencies() writes out as a frequency table, most
+ *  frequent complaint first.
+ *  The table holds every distinct complaint of the file, so its size is
+ *  bounded by the number of distinct complaints, not by the file size.
+ */
+/**
+ *  Batch classifier that scores each distinct complaint once.
+ */
+final class CoCo_dedup_batch {
+
+	private final CoCo_model model;
+	private final Charset charset = Charset.defaultCharset();
+	private final Map<String, Complaint> distinct =
+		new HashMap<String, Complaint>();
+	private final StringBuilder normal = new StringBuilder();
+	private long lines = 0;
+
+	/*
+	 *  A distinct complaint, its classification and its count.
+	 */
+	private static final class Complaint {
+
+		final String complaint;
+		final String syndrome;
+		final byte record[];
+		final int first;
+		long count = 0;
+
+		Complaint(String complaint, String syndrome, byte record[], int first) {
+			this.complaint = complaint;
+			this.syndrome = syndrome;
+			this.record = record;
+			this.first = first;
+		}
+	}
+
+	/**
+	 *  Creates a classifier.
+	 *
+	 * @param  model  the model to classify with
+	 */
+	CoCo_dedup_batch(CoCo_model model) {
+		this.model = model;
+	}
+
+	/**
+	 *  Classifies every line of 'in' and writes one syndrome string per
+	 *  line to 'out', in input order.  'out' is flushed but not closed.
+	 *
+	 * @param  in               preprocessed complaints, one per line
+	 * @param  out              classifications
+	 * @return                  the number of lines classified
+	 * @exception  IOException  if reading or writing fails
+	 */
+	long run(InputStream in, OutputStream out) throws IOException {
+		CoCo_line_reader reader = new CoCo_line_reader(in);
+		long start_lines = lines;
+
+		while (reader.next_line()) {
+			String complaint =
+				normalize(
+					new String(
+						reader.bytes(),
+						reader.line_start(),
+						reader.line_end() - reader.line_start(),
+						charset));
+			Complaint entry = distinct.get(complaint);
+
+			if (entry == null) {
+				String syndrome = model.classify_words(complaint);
+
+				entry =
+					new Complaint(
+						complaint,
+						syndrome,
+						(syndrome + "\n").getBytes(charset),
+						distinct.size());
+				distinct.put(complaint, entry);
+			}
+
+			entry.count++;
+			lines++;
+			out.write(entry.record);
+		}
+
+		out.flush();
+
+		return lines - start_lines;
+	}
+
+	/**
+	 *  Number of lines classified so far.
+	 *
+	 * @return    the line count
+	 */
+	long lines() {
+		return lines;
+	}
+
+	/**
+	 *  Number of distinct complaints seen so far, which is the number of
+	 *  complaints that were actually scored.
+	 *
+	 * @return    the distinct complaint count
+	 */
+	int distinct() {
+		return distinct.size();
+	}
+
+	/**
+	 *  Writes the frequency table: one line per distinct complaint with
+	 *  its count, its classification and the normalized complaint,
+	 *  separated by tabs, most frequent first and in order of first
+	 *  occurrence among equals.
+	 *
+	 * @param  out              where to write the table; flushed, not closed
+	 * @exception  IOException  if writing fails
+	 */
+	void write_frequencies(Writer out) throws IOException {
+		Complaint entry[] = distinct.values().toArray(new Complaint[0]);
+
+		Arrays.sort(entry, new Comparator<Complaint>() {
+			public int compare(Complaint a, Complaint b) {
+				if (a.count != b.count) {
+					return a.count > b.count ? -1 : 1;
+				}
+
+				return a.first - b.first;
+			}
+		});
+
+		for (int loop = 0; loop < entry.length; loop++) {
+			out.write(
+				entry[loop].count
+					+ "\t"
+					+ entry[loop].syndrome
+					+ "\t"
+					+ entry[loop].complaint
+					+ "\n");
+		}
+
+		out.flush();
+	}
+
+	/*
+	 *  Trim the complaint and collapse runs of blanks to one space.
+	 */
+	private String normalize(String complaint) {
+		int length = complaint.length();
+		boolean normal_form = true;
+		int loop;
+
+		for (loop = 0; loop < length && normal_form; loop++) {
+			char c = complaint.charAt(loop);
+
+			if (c == '\t'
+				|| (c == ' '
+					&& (loop == 0
+						|| loop + 1 == length
+						|| complaint.charAt(loop + 1) == ' '))) {
+				normal_form = false;
+			}
+		}
+
+		if (normal_form) {
+			return complaint;
+		}
+
+		normal.setLength(0);
+
+		for (loop = 0; loop < length; loop++) {
+			char c = complaint.charAt(loop);
+
+			if (c == ' ' || c == '\t') {
+				if (normal.length() > 0
+					&& normal.charAt(normal.length() - 1) != ' ') {
+					normal.append(' ');
+				}
+			} else {
+				normal.append(c);
+			}
+		}
+
+		if (normal.length() > 0 && normal.charAt(normal.length() - 1) == ' ') {
+			normal.setLength(normal.length() - 1);
+		}
+
+		return normal.toString();
+	}
+}
@@ -0,0 +1,527 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ *  Directory batch classifier.
+ *  Every complaint file of a directory that matches a glob is classified
+ *  into a file of the same name in the output directory, all in one
+ *  process.  A file is cut into shards of about shard_bytes bytes; a
+ *  shard starts at the first line that starts at or after its nominal
+ *  offset, so no line is split and \r\n is never pulled apart.  Each
+ *  shard is a fork-join task that classifies its lines into a part file
+ *  next to the output file, and the file's task joins its shards and
+ *  appends the parts in order, so the output has exactly the line order
+ *  of the input.  All file and shard tasks run on one ForkJoinPool, so
+ *  a worker that runs out of shards steals them from a busy one and a
+ *  few huge files do not leave the other workers idle at the end.
+ *  Lines are decoded with the platform charset and classified as the
+ *  reader path of CoCo_batch does, so each output file is the same as
+ *  a -b run on that file.
+ *  A compressed complaint file (see CoCo_compression) can not be cut at
+ *  byte offsets, so it is one shard, inflated as it is read; its output
+ *  file loses the .gz suffix.  With gzip output every part is a gzip
+ *  member of its own, and the parts appended in order make one valid
+ *  gzip file; its output file gets the .gz suffix.
+ *  At the end a summary with the lines, bytes, shards and times of
+ *  every file is written to SUMMARY_FILE_NAME in the output directory.
+ *  A file that can not be classified is reported there and in the
+ *  error message, and the other files carry on.
+ */
+/**
+ *  Classifies a directory of complaint files on a fork-join pool.
+ */
+final class CoCo_directory_batch {
+
+	static final String SUMMARY_FILE_NAME = "coco_summary.txt";
+
+	/*
+	 *  Nominal shard size in bytes.
+	 */
+	static long shard_bytes = 1L << 24;
+
+	private final CoCo_model model;
+	private final int threads;
+	private final boolean gzip_output;
+	private final Charset charset = Charset.defaultCharset();
+
+	/*
+	 *  Counts and times of one complaint file.
+	 */
+	private static final class Result {
+
+		final String file_name;
+		long lines = 0;
+		long bytes = 0;
+		int shards = 0;
+		long millis = 0;
+		long shard_millis = 0;
+		String error = null;
+
+		Result(String file_name) {
+			this.file_name = file_name;
+		}
+	}
+
+	/*
+	 *  Classifies one complaint file: cuts it into shards, forks them
+	 *  and appends their parts.
+	 */
+	private final class File_task extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path complaint_file;
+		private final Path classification_file;
+		final Result result;
+
+		File_task(Path complaint_file, Path classification_file) {
+			this.complaint_file = complaint_file;
+			this.classification_file = classification_file;
+			result = new Result(complaint_file.getFileName().toString());
+		}
+
+		protected void compute() {
+			long start = System.nanoTime();
+			List<Shard_task> shards = new ArrayList<Shard_task>();
+
+			try {
+				FileChannel in = FileChannel.open(complaint_file);
+
+				try {
+					long size = in.size();
+					long shard_start = 0;
+
+					result.bytes = size;
+
+					if (CoCo_compression.compressed(complaint_file.toString())) {
+						shards.add(new Shard_task(complaint_file, part(0), 0, -1));
+						shard_start = size;
+					}
+
+					while (shard_start < size) {
+						long shard_end =
+							line_start(in, shard_start + shard_bytes, size);
+
+						shards.add(
+							new Shard_task(
+								complaint_file,
+								part(shards.size()),
+								shard_start,
+								shard_end));
+						shard_start = shard_end;
+					}
+				} finally {
+					in.close();
+				}
+
+				result.shards = shards.size();
+				invokeAll(shards);
+
+				for (Shard_task shard : shards) {
+					if (shard.failure != null) {
+						throw shard.failure;
+					}
+
+					result.lines += shard.lines;
+					result.shard_millis += shard.nanos / 1000000;
+				}
+
+				append(shards);
+			} catch (IOException e) {
+				result.error = e.toString();
+			} finally {
+				for (int loop = 0; loop < shards.size(); loop++) {
+					try {
+						Files.deleteIfExists(part(loop));
+					} catch (IOException e) {
+					}
+				}
+			}
+
+			result.millis = (System.nanoTime() - start) / 1000000;
+		}
+
+		private Path part(int shard) {
+			return classification_file.resolveSibling(
+				classification_file.getFileName() + ".part" + shard);
+		}
+
+		private void append(List<Shard_task> shards) throws IOException {
+			FileChannel out =
+				FileChannel.open(
+					classification_file,
+					StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+
+			try {
+				for (Shard_task shard : shards) {
+					FileChannel part = FileChannel.open(shard.part_file);
+
+					try {
+						long position = 0;
+						long size = part.size();
+
+						while (position < size) {
+							position += part.transferTo(position, size - position, out);
+						}
+					} finally {
+						part.close();
+					}
+				}
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/*
+	 *  Classifies the lines that start in [start, end) of a complaint
+	 *  file, or all of a compressed one if 'end' is -1, into a part
+	 *  file.
+	 */
+	private final class Shard_task extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path complaint_file;
+		final Path part_file;
+		private final long start;
+		private final long end;
+		long lines = 0;
+		long nanos = 0;
+		IOException failure = null;
+
+		Shard_task(Path complaint_file, Path part_file, long start, long end) {
+			this.complaint_file = complaint_file;
+			this.part_file = part_file;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			long begin = System.nanoTime();
+
+			try {
+				InputStream in;
+
+				if (end < 0) {
+					in = CoCo_compression.open(complaint_file.toString());
+				} else {
+					FileChannel channel = FileChannel.open(complaint_file);
+
+					channel.position(start);
+					in = new Range_stream(Channels.newInputStream(channel), end - start);
+				}
+
+				OutputStream out = null;
+
+				try {
+					out = CoCo_compression.create(part_file.toString(), gzip_output);
+
+					CoCo_line_reader reader = new CoCo_line_reader(in);
+					Map<String, byte[]> encoded = new HashMap<String, byte[]>();
+
+					while (reader.next_line()) {
+						String syndrome =
+							model.classify_words(
+								new String(
+									reader.bytes(),
+									reader.line_start(),
+									reader.line_end() - reader.line_start(),
+									charset));
+						byte record[] = encoded.get(syndrome);
+
+						if (record == null) {
+							record = (syndrome + "\n").getBytes(charset);
+							encoded.put(syndrome, record);
+						}
+
+						out.write(record);
+						lines++;
+					}
+				} finally {
+					if (out != null) {
+						out.close();
+					}
+
+					in.close();
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+
+			nanos = System.nanoTime() - begin;
+		}
+	}
+
+	/*
+	 *  The first 'length' bytes of a stream.
+	 */
+	static final class Range_stream extends FilterInputStream {
+
+		private long remaining;
+
+		Range_stream(InputStream in, long length) {
+			super(in);
+			remaining = length;
+		}
+
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			remaining--;
+
+			return super.read();
+		}
+
+		public int read(byte b[], int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+
+			int count = super.read(b, off, (int) Math.min(len, remaining));
+
+			if (count > 0) {
+				remaining -= count;
+			}
+
+			return count;
+		}
+	}
+
+	/**
+	 *  Creates a classifier.
+	 *
+	 * @param  model        the model to classify with
+	 * @param  threads      number of fork-join workers (at least 1)
+	 * @param  gzip_output  whether to gzip-compress the classification
+	 *      files
+	 */
+	CoCo_directory_batch(CoCo_model model, int threads, boolean gzip_output) {
+		this.model = model;
+		this.threads = Math.max(1, threads);
+		this.gzip_output = gzip_output;
+	}
+
+	/**
+	 *  Classifies every file of 'input_directory' whose name matches
+	 *  'glob' into a file of the same name in 'output_directory', and
+	 *  writes the summary there.
+	 *
+	 * @param  input_directory   directory of complaint files
+	 * @param  glob              file name pattern, as for PathMatcher
+	 * @param  output_directory  directory for the classification files;
+	 *      created if missing, and must not be the input directory
+	 * @return                   the number of files that failed
+	 * @exception  IOException   if a directory can not be read or written
+	 */
+	int run(String input_directory, String glob, String output_directory)
+		throws IOException {
+		Path input = Paths.get(input_directory);
+		Path output = Paths.get(output_directory);
+		PathMatcher matcher =
+			input.getFileSystem().getPathMatcher("glob:" + glob);
+		List<Path> complaint_files = new ArrayList<Path>();
+
+		Files.createDirectories(output);
+
+		if (Files.isSameFile(input, output)) {
+			throw new IOException(
+				"CoCo: output directory is the input directory: " + output);
+		}
+
+		DirectoryStream<Path> listing = Files.newDirectoryStream(input);
+
+		try {
+			for (Path file : listing) {
+				if (Files.isRegularFile(file) && matcher.matches(file.getFileName())) {
+					complaint_files.add(file);
+				}
+			}
+		} finally {
+			listing.close();
+		}
+
+		Collections.sort(complaint_files);
+
+		final List<File_task> tasks = new ArrayList<File_task>();
+
+		for (Path file : complaint_files) {
+			String name = file.getFileName().toString();
+
+			if (name.endsWith(".gz") && CoCo_compression.compressed(file.toString())) {
+				name = name.substring(0, name.length() - 3);
+			}
+
+			tasks.add(new File_task(file, output.resolve(name + (gzip_output ? ".gz" : ""))));
+		}
+
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+
+		try {
+			pool.invoke(new RecursiveAction() {
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		long millis = (System.nanoTime() - start) / 1000000;
+		int failed = 0;
+
+		for (File_task task : tasks) {
+			if (task.result.error != null) {
+				failed++;
+			}
+		}
+
+		summary(output.resolve(SUMMARY_FILE_NAME), tasks, millis);
+
+		return failed;
+	}
+
+	/*
+	 *  Write the summary: one tab-separated line per file, then a total.
+	 */
+	private void summary(Path summary_file, List<File_task> tasks, long millis)
+		throws IOException {
+		BufferedWriter out = Files.newBufferedWriter(summary_file, charset);
+		long lines = 0;
+		long bytes = 0;
+		int shards = 0;
+
+		try {
+			out.write("file\tlines\tbytes\tshards\tmillis\tshard_millis\tstatus\n");
+
+			for (File_task task : tasks) {
+				Result result = task.result;
+
+				out.write(
+					result.file_name
+						+ "\t"
+						+ result.lines
+						+ "\t"
+						+ result.bytes
+						+ "\t"
+						+ result.shards
+						+ "\t"
+						+ result.millis
+						+ "\t"
+						+ result.shard_millis
+						+ "\t"
+						+ (result.error == null ? "ok" : result.error)
+						+ "\n");
+				lines += result.lines;
+				bytes += result.bytes;
+				shards += result.shards;
+			}
+
+			out.write(
+				"total "
+					+ tasks.size()
+					+ " files\t"
+					+ lines
+					+ "\t"
+					+ bytes
+					+ "\t"
+					+ shards
+					+ "\t"
+					+ millis
+					+ "\t\t"
+					+ threads
+					+ " threads\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 *  The first offset at or after 'position' where a line starts: just
+	 *  after a \n, or just after a \r that is not followed by \n.  The
+	 *  end of the file counts as a line start.
+	 */
+	static long line_start(FileChannel in, long position, long size)
+		throws IOException {
+		if (position >= size) {
+			return size;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		long offset = position - 1;
+
+		while (offset < size) {
+			buffer.clear();
+
+			int count = in.read(buffer, offset);
+
+			if (count <= 0) {
+				break;
+			}
+
+			for (int loop = 0; loop < count; loop++) {
+				byte b = buffer.get(loop);
+
+				if (b == '\n') {
+					return offset + loop + 1;
+				}
+
+				if (b == '\r') {
+					if (offset + loop + 1 == size) {
+						return size;
+					}
+
+					if (loop + 1 < count) {
+						return buffer.get(loop + 1) == '\n'
+							? offset + loop + 2
+							: offset + loop + 1;
+					}
+
+					/*
+					 *  The \r ends the block; read on from it.
+					 */
+					offset += loop;
+
+					break;
+				}
+
+				if (loop + 1 == count) {
+					offset += count;
+				}
+			}
+		}
+
+		return size;
+	}
+}
@@ -0,0 +1,612 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ *  K-fold cross-validation of the classifier.
+ *  The labelled file is read and tokenized once into an id-encoded
+ *  corpus: for every usable line (as train() skips blank and unlabelled
+ *  ones) its word ids, word pair ids and syndrome ids.  String i belongs
+ *  to fold i % folds.  Each fold is a fork-join task that counts the
+ *  other folds the way CoCo_trainer does, builds a CoCo_model from the
+ *  counts with the current weights, threshold and default probability,
+ *  and scores its own strings, all in memory; the model is the one a
+ *  train() run on the other folds' lines and a load of its probability
+ *  file would give.  Words that only occur in the fold being scored are
+ *  unknown to its model, as they would be in batch mode.
+ *  Scoring is per syndrome, against the distinct syndromes a string is
+ *  labelled with:
+ *  true positive   the syndrome is predicted and labelled
+ *  false positive  the syndrome is predicted but not labelled
+ *  false negative  the syndrome is labelled but not predicted
+ *  The confusion matrix has a row per labelled syndrome and a column per
+ *  predicted one, plus a (none) column for strings that get no
+ *  syndrome ("Other" in line and batch mode); a string with several
+ *  labels or predictions adds one to every (labelled, predicted) cell.
+ *  A string is an exact match if its predicted syndromes are exactly
+ *  its labelled ones.
+ *  The fold results are added up in fold order, so the report does not
+ *  depend on the number of threads.
+ */
+/**
+ *  Parallel in-memory k-fold evaluation.
+ */
+final class CoCo_evaluation {
+
+	private final List<String> syndrome_lookup = new ArrayList<String>();
+	private final List<String> word_lookup = new ArrayList<String>();
+	private int wordpair_first[] = new int[1 << 10];
+	private int wordpair_second[] = new int[1 << 10];
+	private int wordpair_count = 0;
+	private final List<int[]> complaint_word = new ArrayList<int[]>();
+	private final List<int[]> complaint_pair = new ArrayList<int[]>();
+	private final List<int[]> complaint_syndrome = new ArrayList<int[]>();
+
+	/*
+	 *  Counts of one fold's test strings.
+	 */
+	private static final class Result {
+
+		final long true_positive[];
+		final long false_positive[];
+		final long false_negative[];
+		final long confusion[][];
+		long strings = 0;
+		long exact = 0;
+		int training = 0;
+		long train_nanos = 0;
+		long score_nanos = 0;
+
+		Result(int syndrome_count) {
+			true_positive = new long[syndrome_count];
+			false_positive = new long[syndrome_count];
+			false_negative = new long[syndrome_count];
+			confusion = new long[syndrome_count][syndrome_count + 1];
+		}
+
+		void add(Result other) {
+			for (int loop = 0; loop < true_positive.length; loop++) {
+				true_positive[loop] += other.true_positive[loop];
+				false_positive[loop] += other.false_positive[loop];
+				false_negative[loop] += other.false_negative[loop];
+
+				for (int loop1 = 0; loop1 < confusion[loop].length; loop1++) {
+					confusion[loop][loop1] += other.confusion[loop][loop1];
+				}
+			}
+
+			strings += other.strings;
+			exact += other.exact;
+		}
+	}
+
+	/*
+	 *  Trains on the other folds and scores one fold.
+	 */
+	private final class Fold_task extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int folds;
+		private final int fold;
+		final Result result = new Result(syndrome_lookup.size());
+
+		Fold_task(int folds, int fold) {
+			this.folds = folds;
+			this.fold = fold;
+		}
+
+		protected void compute() {
+			long start = System.nanoTime();
+			int fold_word[] = new int[word_lookup.size()];
+			int fold_syndrome[] = new int[syndrome_lookup.size()];
+			CoCo_model model = model(folds, fold, fold_word, fold_syndrome);
+			int syndrome_global[] = new int[model.syndrome_count()];
+			boolean labelled[] = new boolean[syndrome_lookup.size()];
+			boolean predicted[] = new boolean[syndrome_lookup.size()];
+			double threshold = CoCo_batch.threshold;
+			int loop;
+
+			for (loop = 0; loop < fold_syndrome.length; loop++) {
+				if (fold_syndrome[loop] >= 0) {
+					syndrome_global[fold_syndrome[loop]] = loop;
+				}
+			}
+
+			result.training = complaint_word.size() - test_count(folds, fold);
+			result.train_nanos = System.nanoTime() - start;
+			start = System.nanoTime();
+
+			for (int string = fold; string < complaint_word.size(); string += folds) {
+				int global_word[] = complaint_word.get(string);
+				int word[] = new int[global_word.length];
+				boolean none = true;
+				boolean exact = true;
+
+				for (loop = 0; loop < word.length; loop++) {
+					word[loop] = fold_word[global_word[loop]];
+				}
+
+				double complaint_prob[] = model.compute_posterior_probs(word);
+
+				Arrays.fill(labelled, false);
+				Arrays.fill(predicted, false);
+
+				for (int syndrome : complaint_syndrome.get(string)) {
+					labelled[syndrome] = true;
+				}
+
+				if (threshold < 0.0) {
+					int predict = model.predict(complaint_prob);
+
+					if (predict >= 0) {
+						predicted[syndrome_global[predict]] = true;
+					}
+				} else {
+					for (loop = 0; loop < complaint_prob.length; loop++) {
+						if (complaint_prob[loop] >= threshold) {
+							predicted[syndrome_global[loop]] = true;
+						}
+					}
+				}
+
+				for (loop = 0; loop < predicted.length; loop++) {
+					none &= !predicted[loop];
+					exact &= predicted[loop] == labelled[loop];
+
+					if (predicted[loop] && labelled[loop]) {
+						result.true_positive[loop]++;
+					} else if (predicted[loop]) {
+						result.false_positive[loop]++;
+					} else if (labelled[loop]) {
+						result.false_negative[loop]++;
+					}
+				}
+
+				for (loop = 0; loop < labelled.length; loop++) {
+					if (!labelled[loop]) {
+						continue;
+					}
+
+					if (none) {
+						result.confusion[loop][predicted.length]++;
+					}
+
+					for (int loop1 = 0; loop1 < predicted.length; loop1++) {
+						if (predicted[loop1]) {
+							result.confusion[loop][loop1]++;
+						}
+					}
+				}
+
+				result.strings++;
+
+				if (exact) {
+					result.exact++;
+				}
+			}
+
+			result.score_nanos = System.nanoTime() - start;
+		}
+	}
+
+	private CoCo_evaluation() {
+	}
+
+	/**
+	 *  Reads and tokenizes a labelled file.
+	 *
+	 * @param  train_file_name  file of complaint,syndrome[,syndrome...]
+	 *      lines, as for train()
+	 * @return                  the corpus
+	 * @exception  IOException  if the file can not be read
+	 */
+	static CoCo_evaluation read(String train_file_name) throws IOException {
+		CoCo_evaluation corpus = new CoCo_evaluation();
+		Map<String, Integer> syndromes = new HashMap<String, Integer>();
+		Map<String, Integer> words = new HashMap<String, Integer>();
+		CoCo_long_int_map wordpairs = new CoCo_long_int_map(1 << 10);
+		BufferedReader train_file =
+			new BufferedReader(
+				new InputStreamReader(new FileInputStream(train_file_name)));
+
+		try {
+			String train_file_line;
+
+			while ((train_file_line = train_file.readLine()) != null) {
+				String train_file_token[] = CoCo_batch.split(train_file_line, ',');
+
+				if (train_file_token.length == 0) {
+					System.out.print(
+						"WARNING: Blank line found in "
+							+ train_file_name
+							+ " (skipping)\n\n");
+
+					continue;
+				} else if (train_file_token.length == 1) {
+					System.out.print(
+						"WARNING: No syndromes indicated for \""
+							+ train_file_token[0]
+							+ "\" in "
+							+ train_file_name
+							+ " (skipping)\n\n");
+
+					continue;
+				}
+
+				String complaint_token[] =
+					CoCo_batch.split_whitespace(train_file_token[0]);
+				int word[] = new int[complaint_token.length];
+				int pair[] = new int[Math.max(word.length - 1, 0)];
+				int syndrome[] = new int[train_file_token.length - 1];
+				int loop;
+
+				for (loop = 0; loop < word.length; loop++) {
+					word[loop] =
+						CoCo_trainer.id(words, corpus.word_lookup, complaint_token[loop]);
+				}
+
+				for (loop = 0; loop < pair.length; loop++) {
+					pair[loop] = corpus.wordpair(wordpairs, word[loop], word[loop + 1]);
+				}
+
+				for (loop = 0; loop < syndrome.length; loop++) {
+					syndrome[loop] =
+						CoCo_trainer.id(
+							syndromes,
+							corpus.syndrome_lookup,
+							train_file_token[loop + 1]);
+				}
+
+				corpus.complaint_word.add(word);
+				corpus.complaint_pair.add(pair);
+				corpus.complaint_syndrome.add(syndrome);
+			}
+		} finally {
+			train_file.close();
+		}
+
+		return corpus;
+	}
+
+	/**
+	 *  Number of labelled strings.
+	 *
+	 * @return    the string count
+	 */
+	int string_count() {
+		return complaint_word.size();
+	}
+
+	/**
+	 *  Number of distinct syndromes.
+	 *
+	 * @return    the syndrome count
+	 */
+	int syndrome_count() {
+		return syndrome_lookup.size();
+	}
+
+	/**
+	 *  Runs the folds on a fork-join pool and prints the report.
+	 *
+	 * @param  folds    number of folds (at least 2)
+	 * @param  threads  number of fork-join workers (at least 1)
+	 */
+	void run(int folds, int threads) {
+		final List<Fold_task> tasks = new ArrayList<Fold_task>();
+		Result total = new Result(syndrome_lookup.size());
+		long start = System.nanoTime();
+		int loop;
+
+		for (loop = 0; loop < folds; loop++) {
+			tasks.add(new Fold_task(folds, loop));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		System.out.print("fold\ttraining\ttest\ttrain_millis\tscore_millis\texact\n");
+
+		for (Fold_task task : tasks) {
+			Result result = task.result;
+
+			total.add(result);
+			System.out.print(
+				task.fold
+					+ "\t"
+					+ result.training
+					+ "\t"
+					+ result.strings
+					+ "\t"
+					+ result.train_nanos / 1000000
+					+ "\t"
+					+ result.score_nanos / 1000000
+					+ "\t"
+					+ ratio(result.exact, result.strings)
+					+ "\n");
+		}
+
+		System.out.print(
+			"total "
+				+ folds
+				+ " folds\t\t"
+				+ total.strings
+				+ "\t"
+				+ millis
+				+ "\t\t"
+				+ ratio(total.exact, total.strings)
+				+ "\t"
+				+ threads
+				+ " threads\n\n");
+
+		long all_true_positive = 0;
+		long all_false_positive = 0;
+		long all_false_negative = 0;
+
+		System.out.print("syndrome\tprecision\trecall\ttrue_pos\tfalse_pos\tfalse_neg\n");
+
+		for (loop = 0; loop < syndrome_lookup.size(); loop++) {
+			long true_positive = total.true_positive[loop];
+			long false_positive = total.false_positive[loop];
+			long false_negative = total.false_negative[loop];
+
+			System.out.print(
+				syndrome_lookup.get(loop)
+					+ "\t"
+					+ ratio(true_positive, true_positive + false_positive)
+					+ "\t"
+					+ ratio(true_positive, true_positive + false_negative)
+					+ "\t"
+					+ true_positive
+					+ "\t"
+					+ false_positive
+					+ "\t"
+					+ false_negative
+					+ "\n");
+			all_true_positive += true_positive;
+			all_false_positive += false_positive;
+			all_false_negative += false_negative;
+		}
+
+		System.out.print(
+			"all\t"
+				+ ratio(all_true_positive, all_true_positive + all_false_positive)
+				+ "\t"
+				+ ratio(all_true_positive, all_true_positive + all_false_negative)
+				+ "\t"
+				+ all_true_positive
+				+ "\t"
+				+ all_false_positive
+				+ "\t"
+				+ all_false_negative
+				+ "\n\n");
+
+		System.out.print("labelled\\predicted");
+
+		for (loop = 0; loop < syndrome_lookup.size(); loop++) {
+			System.out.print("\t" + syndrome_lookup.get(loop));
+		}
+
+		System.out.print("\t(none)\n");
+
+		for (loop = 0; loop < syndrome_lookup.size(); loop++) {
+			StringBuffer row = new StringBuffer(syndrome_lookup.get(loop));
+
+			for (int loop1 = 0; loop1 <= syndrome_lookup.size(); loop1++) {
+				row.append('\t').append(total.confusion[loop][loop1]);
+			}
+
+			System.out.print(row.append('\n').toString());
+		}
+
+		System.out.print("\n");
+	}
+
+	/**
+	 *  Builds the model of one fold: trained on every string that is not
+	 *  in the fold.  Ids of the model are in first-appearance order over
+	 *  those strings, as train() gives them.
+	 *
+	 * @param  folds          number of folds
+	 * @param  fold           the fold left out
+	 * @param  fold_word      filled with the model's id of every corpus
+	 *      word, or -1 for a word the model does not know
+	 * @param  fold_syndrome  filled with the model's id of every corpus
+	 *      syndrome, or -1
+	 * @return                the model
+	 */
+	CoCo_model model(int folds, int fold, int fold_word[], int fold_syndrome[]) {
+		List<String> fold_word_lookup = new ArrayList<String>();
+		List<String> fold_syndrome_lookup = new ArrayList<String>();
+		int count_train[] = new int[syndrome_lookup.size()];
+		int total_1_tuple[] = new int[syndrome_lookup.size()];
+		CoCo_long_int_map count_1_tuple = new CoCo_long_int_map(1 << 10);
+		CoCo_long_int_map count_2_tuple = new CoCo_long_int_map(1 << 10);
+		int total_train = 0;
+		int loop;
+
+		Arrays.fill(fold_word, -1);
+		Arrays.fill(fold_syndrome, -1);
+
+		for (int string = 0; string < complaint_word.size(); string++) {
+			if (string % folds == fold) {
+				continue;
+			}
+
+			int word[] = complaint_word.get(string);
+			int pair[] = complaint_pair.get(string);
+
+			for (loop = 0; loop < word.length; loop++) {
+				if (fold_word[word[loop]] < 0) {
+					fold_word[word[loop]] = fold_word_lookup.size();
+					fold_word_lookup.add(word_lookup.get(word[loop]));
+				}
+			}
+
+			for (int global_syndrome : complaint_syndrome.get(string)) {
+				if (fold_syndrome[global_syndrome] < 0) {
+					fold_syndrome[global_syndrome] = fold_syndrome_lookup.size();
+					fold_syndrome_lookup.add(syndrome_lookup.get(global_syndrome));
+				}
+
+				int syndrome = fold_syndrome[global_syndrome];
+
+				count_train[syndrome]++;
+
+				for (loop = 0; loop < word.length; loop++) {
+					count_1_tuple.increment(
+						CoCo_long_int_map.pair_key(syndrome, fold_word[word[loop]]));
+					total_1_tuple[syndrome]++;
+				}
+
+				for (loop = 0; loop < pair.length; loop++) {
+					count_2_tuple.increment(CoCo_long_int_map.pair_key(syndrome, pair[loop]));
+				}
+			}
+
+			total_train++;
+		}
+
+		int syndrome_count = fold_syndrome_lookup.size();
+		double prior_prob[] = new double[syndrome_count];
+		double prob_1_tuple[][] = new double[syndrome_count][fold_word_lookup.size()];
+
+		for (loop = 0; loop < syndrome_count; loop++) {
+			prior_prob[loop] = (double) count_train[loop] / (double) total_train;
+			Arrays.fill(prob_1_tuple[loop], CoCo_batch.missing_prob);
+		}
+
+		long key[] = count_1_tuple.keys();
+
+		for (loop = 0; loop < key.length; loop++) {
+			int syndrome = (int) (key[loop] >>> 32);
+
+			prob_1_tuple[syndrome][(int) key[loop]] =
+				(double) count_1_tuple.get(key[loop])
+					/ (double) total_1_tuple[syndrome];
+		}
+
+		/*
+		 *  Word pairs get model ids as the probability file loader gives
+		 *  them; the order does not matter to the model.
+		 */
+		key = count_2_tuple.keys();
+
+		CoCo_long_int_map wordpairs = new CoCo_long_int_map(key.length);
+		int fold_pair_count = 0;
+		int entry_pair[] = new int[key.length];
+		int entry_syndrome[] = new int[key.length];
+		double entry_prob[] = new double[key.length];
+
+		for (loop = 0; loop < key.length; loop++) {
+			int syndrome = (int) (key[loop] >>> 32);
+			int global_pair = (int) key[loop];
+			int first = fold_word[wordpair_first[global_pair]];
+			long wordpair =
+				CoCo_long_int_map.pair_key(first, fold_word[wordpair_second[global_pair]]);
+			int pair = wordpairs.get(wordpair);
+
+			if (pair < 0) {
+				pair = fold_pair_count++;
+				wordpairs.put(wordpair, pair);
+			}
+
+			entry_pair[loop] = pair;
+			entry_syndrome[loop] = syndrome;
+			entry_prob[loop] =
+				(double) count_2_tuple.get(key[loop])
+					/ (double) count_1_tuple.get(
+						CoCo_long_int_map.pair_key(syndrome, first));
+		}
+
+		return new CoCo_model(
+			fold_syndrome_lookup.toArray(new String[0]),
+			prior_prob,
+			fold_word_lookup.toArray(new String[0]),
+			wordpairs,
+			prob_1_tuple,
+			new CoCo_bigram_table(
+				fold_pair_count,
+				key.length,
+				entry_pair,
+				entry_syndrome,
+				entry_prob),
+			CoCo_batch.weight_1_tuple,
+			CoCo_batch.weight_2_tuple,
+			CoCo_batch.threshold,
+			CoCo_batch.default_prob,
+			CoCo_batch.missing_prob);
+	}
+
+	/*
+	 *  Number of strings in a fold.
+	 */
+	private int test_count(int folds, int fold) {
+		return (complaint_word.size() - fold + folds - 1) / folds;
+	}
+
+	/*
+	 *  Return the id of a word pair, giving it the next id if it is new.
+	 */
+	private int wordpair(CoCo_long_int_map wordpairs, int first_word, int second_word) {
+		long key = CoCo_long_int_map.pair_key(first_word, second_word);
+		int wordpair = wordpairs.get(key);
+
+		if (wordpair < 0) {
+			wordpair = wordpair_count++;
+			wordpairs.put(key, wordpair);
+
+			if (wordpair == wordpair_first.length) {
+				wordpair_first = Arrays.copyOf(wordpair_first, wordpair * 2);
+				wordpair_second = Arrays.copyOf(wordpair_second, wordpair * 2);
+			}
+
+			wordpair_first[wordpair] = first_word;
+			wordpair_second[wordpair] = second_word;
+		}
+
+		return wordpair;
+	}
+
+	/*
+	 *  a / b to four decimal places, or "-" if b is 0.
+	 */
+	private static String ratio(long a, long b) {
+		return b == 0 ? "-" : String.valueOf(Math.round(a * 10000.0 / b) / 10000.0);
+	}
+}
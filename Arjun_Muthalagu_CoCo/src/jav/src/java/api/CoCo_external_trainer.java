@@ -0,0 +1,540 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/*
+ *  Out-of-core trainer.
+ *  The n-gram counts of a training file are kept in one
+ *  CoCo_long_int_map whose table is sized from the memory budget once
+ *  and never grows.  A key packs a syndrome id (16 bits) and two word
+ *  ids (24 bits each):
+ *  (s, w, 0)          occurrences of word w in lines listing syndrome s
+ *  (s, w1, w2 + 1)    occurrences of the word pair w1 w2 in those lines
+ *  When the table is half full its keys are sorted and written to a run
+ *  file (<probability file>.run<n>) as key differences and counts in
+ *  varints, as in the count snapshot, and the table is emptied.  At the
+ *  end the runs are merged, MERGE_FAN_IN at a time, until one merge can
+ *  write the probabilities.
+ *  In key order each word's count comes just before the counts of the
+ *  pairs it starts, so both kinds of probability come out of a single
+ *  pass over the merged counts; they go to two part files that are put
+ *  together behind the priors when their line counts are known.
+ *  Only the per-syndrome totals and the syndrome and word lists stay in
+ *  memory besides the table and the merge buffers, so memory does not
+ *  grow with the number of distinct n-grams.
+ *  The priors and word probabilities are written exactly as
+ *  CoCo_trainer writes them.  The pair probabilities are the same
+ *  values but in (syndrome, first word, second word) order instead of
+ *  the order the pairs first appear in, since numbering the pairs would
+ *  take a table of every distinct pair.  The order makes no difference
+ *  to the model loader.  No count snapshot is written, for the same
+ *  reason, so update() can not follow an out-of-core run.
+ */
+/**
+ *  Trains within a memory budget by spilling sorted count runs.
+ */
+final class CoCo_external_trainer {
+
+	private static final int MERGE_FAN_IN = 64;
+	private static final int RUN_BUFFER_BYTES = 1 << 16;
+	private static final int WORD_LIMIT = (1 << 24) - 1;
+	private static final int SYNDROME_LIMIT = 1 << 16;
+
+	private final String prob_file_name;
+	private final Map<String, Integer> syndromes = new HashMap<String, Integer>();
+	private final List<String> syndrome_lookup = new ArrayList<String>();
+	private final Map<String, Integer> words = new HashMap<String, Integer>();
+	private final List<String> word_lookup = new ArrayList<String>();
+	private int count_train[] = new int[16];
+	private int total_1_tuple[] = new int[16];
+	private int total_train = 0;
+	private final CoCo_long_int_map counts;
+	private final int run_keys;
+	private final List<File> runs = new ArrayList<File>();
+	private int run_number = 0;
+
+	/*
+	 *  A run file being merged, positioned at its next entry.
+	 */
+	private static final class Run implements Comparable<Run> {
+
+		private final DataInputStream in;
+		long key = 0;
+		int count;
+
+		Run(File run_file) throws IOException {
+			in =
+				new DataInputStream(
+					new BufferedInputStream(
+						new FileInputStream(run_file),
+						RUN_BUFFER_BYTES));
+		}
+
+		/*
+		 *  Move to the next entry; false at the end of the run.
+		 */
+		boolean next() throws IOException {
+			int b = in.read();
+
+			if (b < 0) {
+				return false;
+			}
+
+			/*
+			 *  The first byte of the key difference tells the end of the run.
+			 */
+			long difference = b & 0x7f;
+
+			if (b >= 0x80) {
+				difference |= CoCo_trainer.read_varint(in) << 7;
+			}
+
+			key += difference;
+			count = (int) CoCo_trainer.read_varint(in);
+
+			return true;
+		}
+
+		void close() {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+
+		public int compareTo(Run other) {
+			return Long.compare(key, other.key);
+		}
+	}
+
+	/**
+	 *  Creates a trainer.
+	 *
+	 * @param  prob_file_name  the probability file to write; the run and
+	 *      part files go next to it
+	 * @param  memory_bytes    memory budget of the count table
+	 */
+	CoCo_external_trainer(String prob_file_name, long memory_bytes) {
+		long capacity = 4;
+
+		/*
+		 *  A table slot is a long key and an int count (12 bytes), and a
+		 *  spill sorts a long[] of half the slots (4 bytes a slot).
+		 */
+		while (capacity * 2 * 16 <= memory_bytes && capacity < (1 << 29)) {
+			capacity <<= 1;
+		}
+
+		this.prob_file_name = prob_file_name;
+		run_keys = (int) (capacity / 2);
+		counts = new CoCo_long_int_map(run_keys);
+	}
+
+	/**
+	 *  Reads a training file and adds its counts, spilling runs as the
+	 *  table fills.
+	 *
+	 * @param  train_file_name  file of complaint,syndrome[,syndrome...]
+	 *      lines
+	 * @exception  IOException  if the file can not be read or a run can
+	 *      not be written
+	 */
+	void read(String train_file_name) throws IOException {
+		BufferedReader train_file =
+			new BufferedReader(
+				new InputStreamReader(new FileInputStream(train_file_name)));
+
+		try {
+			String train_file_line;
+
+			while ((train_file_line = train_file.readLine()) != null) {
+				add(train_file_line, train_file_name);
+			}
+		} finally {
+			train_file.close();
+		}
+	}
+
+	/*
+	 *  Add the counts of one training line.
+	 */
+	private void add(String train_file_line, String train_file_name)
+		throws IOException {
+		String train_file_token[] = CoCo_batch.split(train_file_line, ',');
+
+		if (train_file_token.length == 0) {
+			System.out.print(
+				"WARNING: Blank line found in "
+					+ train_file_name
+					+ " (skipping)\n\n");
+
+			return;
+		} else if (train_file_token.length == 1) {
+			System.out.print(
+				"WARNING: No syndromes indicated for \""
+					+ train_file_token[0]
+					+ "\" in "
+					+ train_file_name
+					+ " (skipping)\n\n");
+
+			return;
+		}
+
+		String complaint_token[] =
+			CoCo_batch.split_whitespace(train_file_token[0]);
+		int complaint_word[] = new int[complaint_token.length];
+		int loop;
+
+		for (loop = 0; loop < complaint_token.length; loop++) {
+			complaint_word[loop] =
+				CoCo_trainer.id(words, word_lookup, complaint_token[loop]);
+
+			if (complaint_word[loop] == WORD_LIMIT) {
+				throw new IOException(
+					"more than " + WORD_LIMIT + " distinct words in " + train_file_name);
+			}
+		}
+
+		for (loop = 1; loop < train_file_token.length; loop++) {
+			int syndrome =
+				CoCo_trainer.id(syndromes, syndrome_lookup, train_file_token[loop]);
+			long prefix = (long) syndrome << 48;
+
+			if (syndrome == SYNDROME_LIMIT) {
+				throw new IOException(
+					"more than " + SYNDROME_LIMIT + " syndromes in " + train_file_name);
+			}
+
+			if (syndrome == count_train.length) {
+				count_train = Arrays.copyOf(count_train, syndrome * 2);
+				total_1_tuple = Arrays.copyOf(total_1_tuple, syndrome * 2);
+			}
+
+			count_train[syndrome]++;
+
+			for (int loop1 = 0; loop1 < complaint_word.length; loop1++) {
+				count(prefix | (long) complaint_word[loop1] << 24);
+				total_1_tuple[syndrome]++;
+			}
+
+			for (int loop1 = 0; loop1 < complaint_word.length - 1; loop1++) {
+				count(
+					prefix
+						| (long) complaint_word[loop1] << 24
+						| complaint_word[loop1 + 1] + 1);
+			}
+		}
+
+		total_train++;
+	}
+
+	/**
+	 *  Number of training lines counted (blank and unlabelled lines are
+	 *  skipped).
+	 *
+	 * @return    the line count
+	 */
+	int total_train() {
+		return total_train;
+	}
+
+	/**
+	 *  Number of distinct syndromes.
+	 *
+	 * @return    the syndrome count
+	 */
+	int syndrome_count() {
+		return syndrome_lookup.size();
+	}
+
+	/**
+	 *  Number of runs spilled so far.
+	 *
+	 * @return    the run count
+	 */
+	int run_count() {
+		return run_number;
+	}
+
+	/**
+	 *  Merges the runs and writes the probability file.  The run and part
+	 *  files are removed, also on failure.
+	 *
+	 * @exception  IOException  if a file can not be read or written
+	 */
+	void write() throws IOException {
+		File prob_1_file = new File(prob_file_name + ".prob1");
+		File prob_2_file = new File(prob_file_name + ".prob2");
+
+		try {
+			if (counts.size() > 0 || runs.isEmpty()) {
+				spill();
+			}
+
+			while (runs.size() > MERGE_FAN_IN) {
+				List<File> group =
+					new ArrayList<File>(runs.subList(0, MERGE_FAN_IN));
+				File merged = run_file();
+				DataOutputStream out = create_run(merged);
+
+				runs.subList(0, MERGE_FAN_IN).clear();
+				runs.add(merged);
+
+				try {
+					merge(group, out, null, null);
+				} finally {
+					out.close();
+
+					for (File run : group) {
+						run.delete();
+					}
+				}
+			}
+
+			long tuple_count[];
+			BufferedWriter prob_1 = writer(prob_1_file);
+			BufferedWriter prob_2 = writer(prob_2_file);
+
+			try {
+				tuple_count = merge(runs, null, prob_1, prob_2);
+			} finally {
+				prob_1.close();
+				prob_2.close();
+			}
+
+			assemble(tuple_count, prob_1_file, prob_2_file);
+		} finally {
+			for (File run : runs) {
+				run.delete();
+			}
+
+			prob_1_file.delete();
+			prob_2_file.delete();
+		}
+	}
+
+	/*
+	 *  Merge runs in key order, adding up the counts of equal keys, into
+	 *  a run file ('out') or into the probability part files.  Returns
+	 *  the number of word and pair lines written.
+	 */
+	private long[] merge(
+		List<File> run_files,
+		DataOutputStream out,
+		BufferedWriter prob_1,
+		BufferedWriter prob_2)
+		throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<Run>();
+		List<Run> open = new ArrayList<Run>();
+		long tuple_count[] = new long[2];
+
+		try {
+			for (File run_file : run_files) {
+				Run run = new Run(run_file);
+
+				open.add(run);
+
+				if (run.next()) {
+					queue.add(run);
+				}
+			}
+
+			long previous = 0;
+			int word_count = 0;
+
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				long key = run.key;
+				long count = run.count;
+
+				if (run.next()) {
+					queue.add(run);
+				}
+
+				while (!queue.isEmpty() && queue.peek().key == key) {
+					Run same = queue.poll();
+
+					count += same.count;
+
+					if (same.next()) {
+						queue.add(same);
+					}
+				}
+
+				if (count > Integer.MAX_VALUE) {
+					throw new IOException("n-gram count overflow in " + prob_file_name);
+				}
+
+				if (out != null) {
+					CoCo_trainer.write_varint(out, key - previous);
+					CoCo_trainer.write_varint(out, count);
+					previous = key;
+
+					continue;
+				}
+
+				int syndrome = (int) (key >>> 48);
+				int first = (int) (key >>> 24) & 0xffffff;
+				int second = (int) key & 0xffffff;
+
+				if (second == 0) {
+					word_count = (int) count;
+					prob_1.write(
+						syndrome_lookup.get(syndrome)
+							+ ","
+							+ word_lookup.get(first)
+							+ ","
+							+ ((double) count / (double) total_1_tuple[syndrome])
+							+ "\n");
+					tuple_count[0]++;
+				} else {
+					prob_2.write(
+						syndrome_lookup.get(syndrome)
+							+ ","
+							+ word_lookup.get(first)
+							+ ","
+							+ word_lookup.get(second - 1)
+							+ ","
+							+ ((double) count / (double) word_count)
+							+ "\n");
+					tuple_count[1]++;
+				}
+			}
+		} finally {
+			for (Run run : open) {
+				run.close();
+			}
+		}
+
+		return tuple_count;
+	}
+
+	/*
+	 *  Write the header, the priors and the two part files as the
+	 *  probability file.
+	 */
+	private void assemble(long tuple_count[], File prob_1_file, File prob_2_file)
+		throws IOException {
+		FileOutputStream prob_file = new FileOutputStream(prob_file_name);
+
+		try {
+			StringBuilder header = new StringBuilder();
+			FileChannel out = prob_file.getChannel();
+
+			header.append(syndrome_lookup.size()).append("\n");
+
+			for (int loop = 0; loop < syndrome_lookup.size(); loop++) {
+				header.append(
+					syndrome_lookup.get(loop)
+						+ ","
+						+ ((double) count_train[loop] / (double) total_train)
+						+ "\n");
+			}
+
+			header.append(tuple_count[0]).append("\n");
+			text(prob_file, header.toString());
+			append(prob_1_file, out);
+			text(prob_file, tuple_count[1] + "\n");
+			append(prob_2_file, out);
+		} finally {
+			prob_file.close();
+		}
+	}
+
+	/*
+	 *  Sort the table's keys, write them as a run and empty the table.
+	 */
+	private void spill() throws IOException {
+		long key[] = counts.keys();
+		File run_file = run_file();
+		DataOutputStream out = create_run(run_file);
+		long previous = 0;
+
+		Arrays.sort(key);
+		runs.add(run_file);
+
+		try {
+			for (int loop = 0; loop < key.length; loop++) {
+				CoCo_trainer.write_varint(out, key[loop] - previous);
+				CoCo_trainer.write_varint(out, counts.get(key[loop]));
+				previous = key[loop];
+			}
+		} finally {
+			out.close();
+		}
+
+		counts.clear();
+	}
+
+	/*
+	 *  Add one to the count of a key, spilling first if the table is
+	 *  half full and the key is new.
+	 */
+	private void count(long key) throws IOException {
+		if (counts.size() == run_keys && counts.get(key) < 0) {
+			spill();
+		}
+
+		counts.increment(key);
+	}
+
+	private File run_file() {
+		return new File(prob_file_name + ".run" + run_number++);
+	}
+
+	private static DataOutputStream create_run(File run_file)
+		throws IOException {
+		return new DataOutputStream(
+			new BufferedOutputStream(
+				new FileOutputStream(run_file),
+				RUN_BUFFER_BYTES));
+	}
+
+	private static BufferedWriter writer(File file) throws IOException {
+		return new BufferedWriter(
+			new OutputStreamWriter(new FileOutputStream(file)),
+			RUN_BUFFER_BYTES);
+	}
+
+	private static void text(FileOutputStream out, String text)
+		throws IOException {
+		out.write(text.getBytes());
+	}
+
+	private static void append(File part_file, FileChannel out)
+		throws IOException {
+		FileChannel part = new FileInputStream(part_file).getChannel();
+
+		try {
+			long position = 0;
+			long size = part.size();
+
+			while (position < size) {
+				position += part.transferTo(position, size - position, out);
+			}
+		} finally {
+			part.close();
+		}
+	}
+}
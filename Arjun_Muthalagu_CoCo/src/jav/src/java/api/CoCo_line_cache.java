@@ -0,0 +1,391 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ *  Bounded cache of interactive classifications (W-TinyLFU).
+ *  A complaint is tokenized first and the cache is keyed by its word id
+ *  sequence.  That is the normalized form of the complaint: case,
+ *  punctuation and spacing are gone, and every word the model does not
+ *  know is -1.  Two complaints with the same word ids get the same
+ *  classification from the same model, so "Chest Pain", "chest  pain."
+ *  and "CHEST-PAIN" share one entry.
+ *  The cache is split into SHARDS shards by key hash, each with its own
+ *  lock.  A shard holds a small LRU window (WINDOW_PERCENT of its
+ *  entries) and an LRU main area.  A new entry goes into the window;
+ *  when the window overflows, its least recently used entry becomes a
+ *  candidate for the main area, and it only gets in if it has been
+ *  asked for more often than the main area's least recently used entry,
+ *  which it would evict.  How often a key has been asked for is
+ *  estimated by a count-min sketch of 4-bit counters that are halved
+ *  every SAMPLE_FACTOR * capacity accesses, so old popularity fades.
+ *  A one-off typo therefore passes through the window and is dropped
+ *  without pushing a hot complaint out of the main area.
+ *  Every entry remembers the model that classified it and only answers
+ *  for that model, and invalidate() empties the cache; CoCo_batch calls
+ *  it whenever the shared model is swapped (see CoCo_model_holder).
+ */
+/**
+ *  Concurrent, size-bounded classification cache.
+ */
+public final class CoCo_line_cache {
+
+	private static final int SHARDS = 16;
+	private static final int WINDOW_PERCENT = 1;
+	private static final int SAMPLE_FACTOR = 10;
+
+	private final int capacity;
+	private final Shard shard[] = new Shard[SHARDS];
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong rejections = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/*
+	 *  A complaint's word ids.
+	 */
+	private static final class Key {
+
+		final int word[];
+		final int hash;
+
+		Key(int word[]) {
+			int h = Arrays.hashCode(word) * 0x9E3779B9;
+
+			this.word = word;
+			hash = h ^ (h >>> 16);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object other) {
+			return other instanceof Key
+				&& hash == ((Key) other).hash
+				&& Arrays.equals(word, ((Key) other).word);
+		}
+	}
+
+	/*
+	 *  A classification and the model it came from.
+	 */
+	private static final class Entry {
+
+		final CoCo_model model;
+		final String syndrome;
+
+		Entry(CoCo_model model, String syndrome) {
+			this.model = model;
+			this.syndrome = syndrome;
+		}
+	}
+
+	/*
+	 *  One lock's worth of the cache.  All fields are guarded by the
+	 *  shard itself.
+	 */
+	private final class Shard {
+
+		private final int window_capacity;
+		private final int main_capacity;
+		private final LinkedHashMap<Key, Entry> window =
+			new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		private final LinkedHashMap<Key, Entry> main =
+			new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		private final Sketch sketch;
+
+		Shard(int capacity) {
+			window_capacity = Math.max(1, capacity * WINDOW_PERCENT / 100);
+			main_capacity = Math.max(1, capacity - window_capacity);
+			sketch = new Sketch(capacity);
+		}
+
+		synchronized Entry get(Key key) {
+			sketch.increment(key.hash);
+
+			Entry entry = window.get(key);
+
+			return entry != null ? entry : main.get(key);
+		}
+
+		synchronized void put(Key key, Entry entry) {
+			if (main.containsKey(key)) {
+				main.put(key, entry);
+
+				return;
+			}
+
+			window.put(key, entry);
+
+			if (window.size() <= window_capacity) {
+				return;
+			}
+
+			Map.Entry<Key, Entry> candidate = eldest(window);
+
+			window.remove(candidate.getKey());
+
+			if (main.size() < main_capacity) {
+				main.put(candidate.getKey(), candidate.getValue());
+
+				return;
+			}
+
+			Map.Entry<Key, Entry> victim = eldest(main);
+
+			if (sketch.frequency(candidate.getKey().hash)
+				> sketch.frequency(victim.getKey().hash)) {
+				main.remove(victim.getKey());
+				main.put(candidate.getKey(), candidate.getValue());
+			} else {
+				rejections.incrementAndGet();
+			}
+
+			evictions.incrementAndGet();
+		}
+
+		synchronized int size() {
+			return window.size() + main.size();
+		}
+
+		synchronized void clear() {
+			window.clear();
+			main.clear();
+		}
+	}
+
+	/*
+	 *  Count-min sketch of 4-bit counters, 16 to a long, 4 rows.
+	 */
+	private static final class Sketch {
+
+		private static final long SEED[] = {
+			0x97CB3127B5D18C4BL, 0xC2B2AE3D27D4EB4FL,
+			0x165667B19E3779F9L, 0x85EBCA77C2B2AE63L
+		};
+
+		private final long table[];
+		private final int counter_mask;
+		private final int sample;
+		private int additions = 0;
+
+		Sketch(int capacity) {
+			int size = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1);
+
+			table = new long[size];
+			counter_mask = size * 16 - 1;
+			sample = SAMPLE_FACTOR * Math.max(capacity, 8);
+		}
+
+		int frequency(int hash) {
+			int frequency = 15;
+
+			for (int row = 0; row < SEED.length; row++) {
+				frequency = Math.min(frequency, count(counter(hash, row)));
+			}
+
+			return frequency;
+		}
+
+		void increment(int hash) {
+			for (int row = 0; row < SEED.length; row++) {
+				int counter = counter(hash, row);
+
+				if (count(counter) < 15) {
+					table[counter >>> 4] += 1L << ((counter & 15) << 2);
+				}
+			}
+
+			if (++additions == sample) {
+				for (int loop = 0; loop < table.length; loop++) {
+					table[loop] = (table[loop] >>> 1) & 0x7777777777777777L;
+				}
+
+				additions /= 2;
+			}
+		}
+
+		private int count(int counter) {
+			return (int) (table[counter >>> 4] >>> ((counter & 15) << 2)) & 15;
+		}
+
+		private int counter(int hash, int row) {
+			long h = (hash + SEED[row]) * SEED[row];
+
+			return (int) (h >>> 32) & counter_mask;
+		}
+	}
+
+	/**
+	 *  Creates a cache.
+	 *
+	 * @param  capacity  maximum number of classifications to keep
+	 */
+	public CoCo_line_cache(int capacity) {
+		this.capacity = Math.max(capacity, SHARDS);
+
+		for (int loop = 0; loop < SHARDS; loop++) {
+			shard[loop] = new Shard((this.capacity + SHARDS - 1) / SHARDS);
+		}
+	}
+
+	/**
+	 *  Classifies an interactive complaint string, as
+	 *  CoCo_model.classify() does, through the cache.
+	 *
+	 * @param  model             the model to classify with
+	 * @param  complaint_string  free-text complaint
+	 * @return                   the syndrome string
+	 */
+	public String classify(CoCo_model model, String complaint_string) {
+		int complaint_word[] =
+			CoCo_tokenizer.LINE.words(model.vocabulary(), complaint_string);
+		Key key = new Key(complaint_word);
+		Shard owner = shard[(key.hash >>> 28) & (SHARDS - 1)];
+		Entry entry = owner.get(key);
+
+		if (entry != null && entry.model == model) {
+			hits.incrementAndGet();
+
+			return entry.syndrome;
+		}
+
+		misses.incrementAndGet();
+
+		String syndrome = model.classify(complaint_word);
+
+		owner.put(key, new Entry(model, syndrome));
+
+		return syndrome;
+	}
+
+	/**
+	 *  Empties the cache.
+	 */
+	public void invalidate() {
+		for (int loop = 0; loop < SHARDS; loop++) {
+			shard[loop].clear();
+		}
+
+		invalidations.incrementAndGet();
+	}
+
+	/**
+	 *  Maximum number of classifications kept.
+	 *
+	 * @return    the capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 *  Number of classifications kept now.
+	 *
+	 * @return    the size
+	 */
+	public int size() {
+		int size = 0;
+
+		for (int loop = 0; loop < SHARDS; loop++) {
+			size += shard[loop].size();
+		}
+
+		return size;
+	}
+
+	/**
+	 *  Number of classifications answered from the cache.
+	 *
+	 * @return    the hit count
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 *  Number of classifications that had to be computed.
+	 *
+	 * @return    the miss count
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 *  Number of entries that left the cache for lack of room, whether
+	 *  they were evicted from the main area or refused entry to it.
+	 *
+	 * @return    the eviction count
+	 */
+	public long evictions() {
+		return evictions.get();
+	}
+
+	/**
+	 *  Number of window entries refused entry to the main area because
+	 *  they were asked for less often than the entry they would evict.
+	 *
+	 * @return    the rejection count
+	 */
+	public long rejections() {
+		return rejections.get();
+	}
+
+	/**
+	 *  Number of times the cache was emptied by invalidate().
+	 *
+	 * @return    the invalidation count
+	 */
+	public long invalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 *  The counters, for logging.
+	 *
+	 * @return    a one-line summary
+	 */
+	public String toString() {
+		return "CoCo_line_cache: size "
+			+ size()
+			+ "/"
+			+ capacity
+			+ ", hits "
+			+ hits()
+			+ ", misses "
+			+ misses()
+			+ ", evictions "
+			+ evictions()
+			+ ", rejections "
+			+ rejections()
+			+ ", invalidations "
+			+ invalidations();
+	}
+
+	private static <K, V> Map.Entry<K, V> eldest(LinkedHashMap<K, V> map) {
+		return map.entrySet().iterator().next();
+	}
+}
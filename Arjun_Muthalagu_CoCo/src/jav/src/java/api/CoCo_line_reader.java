@@ -0,0 +1,181 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+
+/*
+ *  Byte-level line reader.
+ *  Lines end with \n, \r or \r\n, as for BufferedReader.readLine(), but
+ *  a line is handed out as a range of the reader's byte buffer, not as a
+ *  String, and the reader keeps count of the bytes consumed so far, so
+ *  a caller always knows the byte offset of the next line.
+ *  The buffer is refilled by moving the unread bytes to its front, and
+ *  grows when a single line fills it, so a line is always whole.  The
+ *  range is only valid until the next call to next_line().
+ */
+/**
+ *  Line reader over an InputStream.
+ */
+final class CoCo_line_reader {
+
+	private final InputStream in;
+	private byte buffer[] = new byte[1 << 16];
+	private int position = 0;
+	private int limit = 0;
+	private boolean eof = false;
+	private long consumed = 0;
+	private int line_start;
+	private int line_end;
+	private long line_number = 0;
+
+	/**
+	 *  Creates a reader.
+	 *
+	 * @param  in  the stream to read
+	 */
+	CoCo_line_reader(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 *  Advances to the next line.
+	 *
+	 * @return                  false at the end of the stream
+	 * @exception  IOException  if the stream can not be read
+	 */
+	boolean next_line() throws IOException {
+		int loop = position;
+
+		while (true) {
+			for (; loop < limit; loop++) {
+				byte b = buffer[loop];
+
+				if (b == '\n' || b == '\r') {
+					if (b == '\r' && loop + 1 == limit && !eof) {
+						/*
+						 *  Need the next byte to tell \r from \r\n.
+						 */
+						break;
+					}
+
+					line_start = position;
+					line_end = loop;
+					advance(
+						loop + ((b == '\r' && loop + 1 < limit
+								&& buffer[loop + 1] == '\n') ? 2 : 1));
+
+					return true;
+				}
+			}
+
+			if (eof) {
+				if (position == limit) {
+					return false;
+				}
+
+				line_start = position;
+				line_end = limit;
+				advance(limit);
+
+				return true;
+			}
+
+			loop -= position;
+			fill();
+		}
+	}
+
+	/**
+	 *  The buffer holding the current line.
+	 *
+	 * @return    the buffer
+	 */
+	byte[] bytes() {
+		return buffer;
+	}
+
+	/**
+	 *  Start of the current line in bytes().
+	 *
+	 * @return    the index of its first byte
+	 */
+	int line_start() {
+		return line_start;
+	}
+
+	/**
+	 *  End of the current line in bytes(), before its line break.
+	 *
+	 * @return    one past the index of its last byte
+	 */
+	int line_end() {
+		return line_end;
+	}
+
+	/**
+	 *  Number of the current line, counting from 1.
+	 *
+	 * @return    the line number
+	 */
+	long line_number() {
+		return line_number;
+	}
+
+	/**
+	 *  Bytes read so far, up to and including the current line's break.
+	 *
+	 * @return    the offset of the next line
+	 */
+	long offset() {
+		return consumed;
+	}
+
+	private void advance(int next) {
+		consumed += next - position;
+		position = next;
+		line_number++;
+	}
+
+	/*
+	 *  Move the unread bytes to the front of the buffer (growing it if a
+	 *  line fills it) and read more behind them.
+	 */
+	private void fill() throws IOException {
+		int unread = limit - position;
+
+		if (unread == buffer.length) {
+			buffer = java.util.Arrays.copyOf(buffer, buffer.length * 2);
+		} else {
+			System.arraycopy(buffer, position, buffer, 0, unread);
+		}
+
+		position = 0;
+		limit = unread;
+
+		int read = in.read(buffer, limit, buffer.length - limit);
+
+		if (read < 0) {
+			eof = true;
+		} else {
+			limit += read;
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.*;
+
+/*
+ *  Open-addressing hash map from long keys to non-negative int values,
+ *  using linear probing over two parallel primitive arrays.  Nothing is
+ *  boxed and get() allocates nothing.
+ *  The map is not synchronized.  A model fills it while loading and
+ *  only reads it afterwards, which makes it safe to share once the
+ *  model has been published.  The arrays are held as buffers so that a
+ *  map read from a compiled model file is used in place.
+ */
+/**
+ *  Primitive long to int hash map.
+ */
+final class CoCo_long_int_map {
+
+	private LongBuffer keys;
+	private IntBuffer values;
+	private int mask;
+	private int size = 0;
+
+	/**
+	 *  Creates a map sized for the expected number of keys.
+	 *
+	 * @param  expected  expected number of keys
+	 */
+	CoCo_long_int_map(int expected) {
+		int capacity = 4;
+
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+
+		allocate(capacity);
+	}
+
+	/**
+	 *  Maps a table written by write().  The result is read-only.
+	 *
+	 * @param  file  the model file
+	 */
+	CoCo_long_int_map(CoCo_model_file file) {
+		keys = file.read_longs();
+		values = file.read_ints();
+		mask = values.limit() - 1;
+
+		for (int loop = 0; loop < values.limit(); loop++) {
+			if (values.get(loop) >= 0) {
+				size++;
+			}
+		}
+	}
+
+	/**
+	 *  Writes the table to a model file.
+	 *
+	 * @param  file             the model file
+	 * @exception  IOException  if the file can not be written
+	 */
+	void write(CoCo_model_file file) throws IOException {
+		file.write_longs(keys);
+		file.write_ints(values);
+	}
+
+	/*
+	 *  Combine two word ids into a word pair key.
+	 */
+	/**
+	 *  Packs a word pair into one key.
+	 *
+	 * @param  first_word   id of the first word
+	 * @param  second_word  id of the second word
+	 * @return              the packed key
+	 */
+	static long pair_key(int first_word, int second_word) {
+		return ((long) first_word << 32) | (second_word & 0xffffffffL);
+	}
+
+	/**
+	 *  Number of keys in the map.
+	 *
+	 * @return    the key count
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 *  Looks up a key.
+	 *
+	 * @param  key  the key
+	 * @return      the value, or -1 if the key is not in the map
+	 */
+	int get(long key) {
+		int slot = slot(key);
+
+		int value;
+
+		while ((value = values.get(slot)) >= 0) {
+			if (keys.get(slot) == key) {
+				return value;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 *  Adds or replaces a key.
+	 *
+	 * @param  key    the key
+	 * @param  value  the value, which must not be negative
+	 */
+	void put(long key, int value) {
+		int slot = slot(key);
+
+		while (values.get(slot) >= 0) {
+			if (keys.get(slot) == key) {
+				values.put(slot, value);
+
+				return;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		keys.put(slot, key);
+		values.put(slot, value);
+
+		if (++size * 2 > values.limit()) {
+			rehash();
+		}
+	}
+
+	/**
+	 *  Adds one to the value of a key, which counts from 0 if the key is
+	 *  not in the map yet.
+	 *
+	 * @param  key  the key
+	 * @return      the new value
+	 */
+	int increment(long key) {
+		return add(key, 1);
+	}
+
+	/**
+	 *  Adds to the value of a key, which counts from 0 if the key is not
+	 *  in the map yet.
+	 *
+	 * @param  key    the key
+	 * @param  count  the amount to add (>= 0)
+	 * @return        the new value
+	 */
+	int add(long key, int count) {
+		int slot = slot(key);
+		int value;
+
+		while ((value = values.get(slot)) >= 0) {
+			if (keys.get(slot) == key) {
+				values.put(slot, value + count);
+
+				return value + count;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		keys.put(slot, key);
+		values.put(slot, count);
+
+		if (++size * 2 > values.limit()) {
+			rehash();
+		}
+
+		return count;
+	}
+
+	/**
+	 *  Removes every key, keeping the table at its current size.
+	 */
+	void clear() {
+		for (int loop = 0; loop < values.limit(); loop++) {
+			values.put(loop, -1);
+		}
+
+		size = 0;
+	}
+
+	/**
+	 *  All keys of the map, in no particular order.
+	 *
+	 * @return    the keys
+	 */
+	long[] keys() {
+		long key[] = new long[size];
+		int count = 0;
+
+		for (int loop = 0; loop < values.limit(); loop++) {
+			if (values.get(loop) >= 0) {
+				key[count++] = keys.get(loop);
+			}
+		}
+
+		return key;
+	}
+
+	private int slot(long key) {
+		/*
+		 *  MurmurHash3 finalizer; spreads packed word ids over the table.
+		 */
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+
+		return (int) key & mask;
+	}
+
+	private void allocate(int capacity) {
+		int value[] = new int[capacity];
+
+		java.util.Arrays.fill(value, -1);
+
+		keys = LongBuffer.wrap(new long[capacity]);
+		values = IntBuffer.wrap(value);
+		mask = capacity - 1;
+	}
+
+	private void rehash() {
+		LongBuffer old_keys = keys;
+		IntBuffer old_values = values;
+
+		allocate(old_values.limit() * 2);
+
+		for (int loop = 0; loop < old_values.limit(); loop++) {
+			if (old_values.get(loop) >= 0) {
+				int slot = slot(old_keys.get(loop));
+
+				while (values.get(slot) >= 0) {
+					slot = (slot + 1) & mask;
+				}
+
+				keys.put(slot, old_keys.get(loop));
+				values.put(slot, old_values.get(loop));
+			}
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+/*
+ *  Byte-level batch classifier.
+ *  The complaint file is memory-mapped MAP_BYTES at a time and line
+ *  boundaries are found in the mapped bytes (\n, \r and \r\n end a line,
+ *  as for BufferedReader.readLine()).  An ASCII line is tokenized where
+ *  it lies, straight from the mapped bytes into word ids, so no charset
+ *  decoding and no String is involved.  A line holding any
+ *  byte above 127 is decoded with the platform charset and classified
+ *  as a String, which gives the same result as the reader path for any
+ *  ASCII-compatible charset.
+ *  In argmax mode every result is one of the syndrome names or "Other",
+ *  so the labels are encoded once, newline included, and copied into a
+ *  direct output buffer that is written to the classification file's
+ *  channel whenever it fills up.
+ *  A window ends at the last line break it holds; the next window is
+ *  mapped from the start of the line that was cut.  A line longer than a
+ *  window makes the window grow.
+ *  With a checkpoint the run starts at the checkpoint's input offset,
+ *  writes to the checkpoint's channel and reports each window once its
+ *  labels are written (see CoCo_checkpoint).
+ */
+/**
+ *  Memory-mapped batch classifier.
+ */
+final class CoCo_mapped_batch {
+
+	private static final int MAP_BYTES = 1 << 26;
+	private static final int OUT_BYTES = 1 << 20;
+
+	private final CoCo_model model;
+	private final byte label[][];
+	private final Charset charset = Charset.defaultCharset();
+	private final ByteBuffer out = ByteBuffer.allocateDirect(OUT_BYTES);
+	private long output_bytes;
+
+	/**
+	 *  Creates a classifier.
+	 *
+	 * @param  model  the model to classify with
+	 */
+	CoCo_mapped_batch(CoCo_model model) {
+		this.model = model;
+		label = new byte[model.syndrome_count() + 1][];
+
+		for (int loop = 0; loop < model.syndrome_count(); loop++) {
+			label[loop] = (model.syndrome(loop) + "\n").getBytes(charset);
+		}
+
+		label[model.syndrome_count()] = "Other\n".getBytes(charset);
+	}
+
+	/**
+	 *  Classifies every line of a complaint file.
+	 *
+	 * @param  complaint_file_name       preprocessed complaints, one per line
+	 * @param  classification_file_name  file to write the classifications to
+	 * @return                           the number of lines classified
+	 * @exception  IOException           if a file can not be read or written
+	 */
+	long run(String complaint_file_name, String classification_file_name)
+		throws IOException {
+		RandomAccessFile in = new RandomAccessFile(complaint_file_name, "r");
+		FileOutputStream out_file = new FileOutputStream(classification_file_name);
+
+		try {
+			return run(in.getChannel(), out_file.getChannel(), null);
+		} finally {
+			in.close();
+			out_file.close();
+		}
+	}
+
+	/**
+	 *  Classifies the lines of a complaint file from a checkpoint on.
+	 *
+	 * @param  complaint_file_name  preprocessed complaints, one per line
+	 * @param  checkpoint           where to resume and write to
+	 * @return                      the number of lines classified by this
+	 *      run
+	 * @exception  IOException      if a file can not be read or written
+	 */
+	long run(String complaint_file_name, CoCo_checkpoint checkpoint)
+		throws IOException {
+		RandomAccessFile in = new RandomAccessFile(complaint_file_name, "r");
+
+		try {
+			return run(in.getChannel(), checkpoint.channel(), checkpoint);
+		} finally {
+			in.close();
+		}
+	}
+
+	private long run(
+		FileChannel in,
+		FileChannel out_channel,
+		CoCo_checkpoint checkpoint)
+		throws IOException {
+		long size = in.size();
+		long position = checkpoint == null ? 0 : checkpoint.resume_input();
+		long lines = 0;
+		int window_bytes = MAP_BYTES;
+
+		out.clear();
+		output_bytes = 0;
+
+		while (position < size) {
+			int length = (int) Math.min(window_bytes, size - position);
+			boolean last = position + length == size;
+			MappedByteBuffer window =
+				in.map(FileChannel.MapMode.READ_ONLY, position, length);
+			long window_lines = lines;
+			int start = 0;
+			int loop;
+
+			for (loop = 0; loop < length; loop++) {
+				byte b = window.get(loop);
+
+				if (b == '\n' || b == '\r') {
+					if (b == '\r' && loop + 1 == length && !last) {
+						/*
+						 *  Can not tell \r from \r\n yet.
+						 */
+						break;
+					}
+
+					classify(window, start, loop, out_channel);
+					lines++;
+
+					if (b == '\r' && loop + 1 < length
+						&& window.get(loop + 1) == '\n') {
+						loop++;
+					}
+
+					start = loop + 1;
+				}
+			}
+
+			if (last && start < length) {
+				classify(window, start, length, out_channel);
+				lines++;
+				start = length;
+			}
+
+			if (start == 0 && !last) {
+				window_bytes =
+					(int) Math.min((long) window_bytes * 2, Integer.MAX_VALUE);
+			}
+
+			position += start;
+
+			if (checkpoint != null && start > 0) {
+				drain(out_channel);
+				checkpoint.advance(start, output_bytes, lines - window_lines);
+				output_bytes = 0;
+			}
+
+			if (last && start == length) {
+				break;
+			}
+		}
+
+		drain(out_channel);
+
+		return lines;
+	}
+
+	/*
+	 *  Classify bytes [start, end) of the window and queue the label.
+	 */
+	private void classify(
+		ByteBuffer bytes,
+		int start,
+		int end,
+		FileChannel out_channel)
+		throws IOException {
+		boolean ascii = true;
+
+		for (int loop = start; loop < end; loop++) {
+			if (bytes.get(loop) < 0) {
+				ascii = false;
+
+				break;
+			}
+		}
+
+		byte result[];
+
+		if (!ascii) {
+			byte text[] = new byte[end - start];
+
+			for (int loop = start; loop < end; loop++) {
+				text[loop - start] = bytes.get(loop);
+			}
+
+			result =
+				(model.classify_words(new String(text, charset)) + "\n")
+					.getBytes(charset);
+		} else {
+			double complaint_prob[] =
+				model.compute_posterior_probs(
+					CoCo_tokenizer.BATCH.words(
+						model.vocabulary(),
+						bytes,
+						start,
+						end));
+
+			if (model.threshold() < 0.0) {
+				int predict = model.predict(complaint_prob);
+
+				result = label[predict < 0 ? model.syndrome_count() : predict];
+			} else {
+				result =
+					(model.posterior_probs_to_syndrome_string(complaint_prob)
+						+ "\n").getBytes(charset);
+			}
+		}
+
+		if (out.remaining() < result.length) {
+			drain(out_channel);
+		}
+
+		if (out.remaining() < result.length) {
+			out_channel.write(ByteBuffer.wrap(result));
+		} else {
+			out.put(result);
+		}
+
+		output_bytes += result.length;
+	}
+
+	private void drain(FileChannel out_channel) throws IOException {
+		out.flip();
+
+		while (out.hasRemaining()) {
+			out_channel.write(out);
+		}
+
+		out.clear();
+	}
+}
@@ -0,0 +1,558 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/*
+ *  Compiled form of a CoCo probability file.
+ *  Every field is assigned once in the constructor and never written
+ *  again, so a model can be handed to any number of threads (the final
+ *  fields guarantee safe publication) and classify() needs no locking.
+ *  The classifier parameters (weights, threshold, default probability)
+ *  are captured when the model is built.
+ *  A model is either built from the tables of a text probability file
+ *  or mapped from a compiled model file (see CoCo_model_file), in which
+ *  case its tables are views of the mapping.
+ */
+/**
+ *  Immutable, thread-safe CoCo classifier.
+ */
+public final class CoCo_model {
+
+	private final int syndrome_count;
+	private final int word_count;
+	private final String syndrome_lookup[];
+	private final CoCo_vocabulary words;
+	private final CoCo_long_int_map wordpairs;
+	private final CoCo_bigram_table prob_2_tuple;
+	private final double weight_1_tuple;
+	private final double weight_2_tuple;
+	private final double threshold;
+	private final double default_prob;
+
+	/*
+	 *  Scoring tables.  log_prob_1_tuple is word-major: the log
+	 *  probabilities of word w for every syndrome are stored contiguously
+	 *  at [w * syndrome_count, (w + 1) * syndrome_count), with missing
+	 *  entries already replaced by log(default_prob).  word_found holds,
+	 *  for every word, a bit set of the syndromes that actually list the
+	 *  word (mask_words longs per word).
+	 */
+	private final double log_prior_prob[];
+	private final FloatBuffer log_prob_1_tuple;
+	private final LongBuffer word_found;
+	private final int mask_words;
+	private final float log_default_prob;
+	private final double log_weight_1_tuple;
+
+	/**
+	 *  Builds a model from the tables read out of a probability file.  The
+	 *  caller must not modify the arrays afterwards.
+	 *
+	 * @param  syndrome_lookup  syndrome names indexed by syndrome id
+	 * @param  prior_prob       prior probability of each syndrome
+	 * @param  word_lookup      words indexed by word id
+	 * @param  wordpairs        packed word ids to word pair id
+	 * @param  prob_1_tuple     [syndrome][word] probabilities
+	 * @param  prob_2_tuple     sparse wordpair probabilities
+	 * @param  weight_1_tuple   unigram weight
+	 * @param  weight_2_tuple   bigram weight
+	 * @param  threshold        classification threshold (< 0 for argmax)
+	 * @param  default_prob     probability used for unseen words
+	 * @param  missing_prob     sentinel marking an absent table entry
+	 */
+	CoCo_model(
+		String[] syndrome_lookup,
+		double[] prior_prob,
+		String[] word_lookup,
+		CoCo_long_int_map wordpairs,
+		double[][] prob_1_tuple,
+		CoCo_bigram_table prob_2_tuple,
+		double weight_1_tuple,
+		double weight_2_tuple,
+		double threshold,
+		double default_prob,
+		double missing_prob) {
+		this.syndrome_count = syndrome_lookup.length;
+		this.syndrome_lookup = syndrome_lookup;
+		this.words = new CoCo_vocabulary(word_lookup);
+		this.wordpairs = wordpairs;
+		this.prob_2_tuple = prob_2_tuple;
+		this.weight_1_tuple = weight_1_tuple;
+		this.weight_2_tuple = weight_2_tuple;
+		this.threshold = threshold;
+		this.default_prob = default_prob;
+
+		int loop1;
+		int loop2;
+
+		word_count = word_lookup.length;
+		mask_words = (syndrome_count + 63) >>> 6;
+		log_default_prob = (float) Math.log(default_prob);
+		log_weight_1_tuple = Math.log(weight_1_tuple);
+		log_prior_prob = new double[syndrome_count];
+
+		float log_prob_1_tuple[] = new float[word_count * syndrome_count];
+		long word_found[] = new long[word_count * mask_words];
+
+		for (loop1 = 0; loop1 < syndrome_count; loop1++) {
+			log_prior_prob[loop1] = Math.log(prior_prob[loop1]);
+
+			for (loop2 = 0; loop2 < word_count; loop2++) {
+				double prob = prob_1_tuple[loop1][loop2];
+
+				if (prob == missing_prob) {
+					log_prob_1_tuple[loop2 * syndrome_count + loop1] =
+						log_default_prob;
+				} else {
+					log_prob_1_tuple[loop2 * syndrome_count + loop1] =
+						(float) Math.log(prob);
+					word_found[loop2 * mask_words + (loop1 >>> 6)] |=
+						1L << loop1;
+				}
+			}
+		}
+
+		this.log_prob_1_tuple = FloatBuffer.wrap(log_prob_1_tuple);
+		this.word_found = LongBuffer.wrap(word_found);
+	}
+
+	/*
+	 *  Build a model around the tables of a mapped model file.
+	 */
+	private CoCo_model(
+		CoCo_model_file file,
+		double weight_1_tuple,
+		double weight_2_tuple,
+		double threshold,
+		double default_prob) {
+		DoubleBuffer prior = file.read_doubles();
+		IntBuffer name_offset = file.read_ints();
+		CharBuffer names = file.read_chars();
+		int loop;
+
+		this.weight_1_tuple = weight_1_tuple;
+		this.weight_2_tuple = weight_2_tuple;
+		this.threshold = threshold;
+		this.default_prob = default_prob;
+		syndrome_count = prior.limit();
+		syndrome_lookup = new String[syndrome_count];
+		log_prior_prob = new double[syndrome_count];
+
+		for (loop = 0; loop < syndrome_count; loop++) {
+			log_prior_prob[loop] = prior.get(loop);
+			syndrome_lookup[loop] =
+				names
+					.subSequence(name_offset.get(loop), name_offset.get(loop + 1))
+					.toString();
+		}
+
+		words = new CoCo_vocabulary(file);
+		log_prob_1_tuple = file.read_floats();
+		word_found = file.read_longs();
+		wordpairs = new CoCo_long_int_map(file);
+		prob_2_tuple = new CoCo_bigram_table(file);
+		word_count = words.size();
+		mask_words = (syndrome_count + 63) >>> 6;
+		log_default_prob = (float) Math.log(default_prob);
+		log_weight_1_tuple = Math.log(weight_1_tuple);
+	}
+
+	/**
+	 *  Maps a compiled model file.
+	 *
+	 * @param  model_file_name   the model file
+	 * @param  weight_1_tuple    unigram weight
+	 * @param  weight_2_tuple    bigram weight
+	 * @param  threshold         classification threshold (< 0 for argmax)
+	 * @param  default_prob      probability used for unseen words; must be
+	 *      the value the file was compiled with
+	 * @return                   the model
+	 * @exception  IOException  if the file can not be mapped, is truncated
+	 *      or corrupt, or was compiled by another version or with another
+	 *      default_prob
+	 */
+	static CoCo_model map(
+		String model_file_name,
+		double weight_1_tuple,
+		double weight_2_tuple,
+		double threshold,
+		double default_prob)
+		throws IOException {
+		CoCo_model_file file = CoCo_model_file.map(model_file_name);
+
+		try {
+			int version = file.read_int();
+			double compiled_prob;
+
+			if (version != CoCo_model_file.VERSION) {
+				throw new IOException(
+					model_file_name + " is a version " + version + " model");
+			}
+
+			compiled_prob = file.read_double();
+
+			if (compiled_prob != default_prob) {
+				throw new IOException(
+					model_file_name
+						+ " was compiled with default_prob "
+						+ compiled_prob);
+			}
+
+			return new CoCo_model(
+				file,
+				weight_1_tuple,
+				weight_2_tuple,
+				threshold,
+				default_prob);
+		} catch (BufferUnderflowException e) {
+			throw new IOException(model_file_name + " is truncated");
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException(model_file_name + " is corrupt");
+		}
+	}
+
+	/**
+	 *  Writes the model to a compiled model file.
+	 *
+	 * @param  file             the model file
+	 * @exception  IOException  if the file can not be written
+	 */
+	void write(CoCo_model_file file) throws IOException {
+		StringBuffer names = new StringBuffer();
+		int name_offset[] = new int[syndrome_count + 1];
+
+		for (int loop = 0; loop < syndrome_count; loop++) {
+			names.append(syndrome_lookup[loop]);
+			name_offset[loop + 1] = names.length();
+		}
+
+		file.write_int(CoCo_model_file.VERSION);
+		file.write_double(default_prob);
+		file.write_doubles(DoubleBuffer.wrap(log_prior_prob));
+		file.write_ints(IntBuffer.wrap(name_offset));
+		file.write_chars(CharBuffer.wrap(names));
+		words.write(file);
+		file.write_floats(log_prob_1_tuple);
+		file.write_longs(word_found);
+		wordpairs.write(file);
+		prob_2_tuple.write(file);
+	}
+
+	/**
+	 *  Number of syndromes known to the model.
+	 *
+	 * @return    the syndrome count
+	 */
+	public int syndrome_count() {
+		return syndrome_count;
+	}
+
+	/**
+	 *  Name of a syndrome.
+	 *
+	 * @param  syndrome  syndrome id
+	 * @return           the syndrome name
+	 */
+	public String syndrome(int syndrome) {
+		return syndrome_lookup[syndrome];
+	}
+
+	/**
+	 *  The classification threshold the model was built with.
+	 *
+	 * @return    the threshold (< 0 for argmax)
+	 */
+	double threshold() {
+		return threshold;
+	}
+
+	/**
+	 *  Number of words known to the model.
+	 *
+	 * @return    the word count
+	 */
+	public int word_count() {
+		return word_count;
+	}
+
+	/**
+	 *  A word of the model's vocabulary.
+	 *
+	 * @param  word  word id
+	 * @return       the word
+	 */
+	public String word(int word) {
+		return words.word(word);
+	}
+
+	/**
+	 *  The model's vocabulary.
+	 *
+	 * @return    the vocabulary
+	 */
+	CoCo_vocabulary vocabulary() {
+		return words;
+	}
+
+	/**
+	 *  Classifies an interactive complaint string.  Punctuation is treated
+	 *  as a word break and the words are lowercased before scoring.
+	 *
+	 * @param  complaint_string  free-text complaint
+	 * @return                   the syndrome string
+	 */
+	public String classify(String complaint_string) {
+		return posterior_probs_to_syndrome_string(
+			compute_posterior_probs(
+				CoCo_tokenizer.LINE.words(words, complaint_string)));
+	}
+
+	/*
+	 *  Classify a complaint that has already been tokenized.
+	 */
+	String classify(int[] complaint_word) {
+		return posterior_probs_to_syndrome_string(
+			compute_posterior_probs(complaint_word));
+	}
+
+	/**
+	 *  Classifies a preprocessed complaint string whose words are separated
+	 *  by whitespace, as found in a batch complaint file.
+	 *
+	 * @param  c_str  preprocessed complaint
+	 * @return        the syndrome string
+	 */
+	public String classify_words(String c_str) {
+		return posterior_probs_to_syndrome_string(
+			compute_posterior_probs(CoCo_tokenizer.BATCH.words(words, c_str)));
+	}
+
+	/*
+	 *  Resolve each pair of adjacent words to a word pair id (or -1)
+	 *  once per complaint.  Entry i is the pair ending at word i + 1.
+	 */
+	private int[] complaint_pairs(int[] complaint_word) {
+		int complaint_pair[] =
+			new int[Math.max(complaint_word.length - 1, 0)];
+
+		for (int loop = 0; loop < complaint_pair.length; loop++) {
+			if (complaint_word[loop] < 0 || complaint_word[loop + 1] < 0) {
+				complaint_pair[loop] = -1;
+			} else {
+				complaint_pair[loop] =
+					wordpairs.get(
+						CoCo_long_int_map.pair_key(
+							complaint_word[loop],
+							complaint_word[loop + 1]));
+			}
+		}
+
+		return complaint_pair;
+	}
+
+	/*
+	 *  Convert the posterior probabilities into a string indicating
+	 *  into which syndromes the complaint string has been classified.
+	 *  If the threshold is less than 0, then the string comprises
+	 *  that syndrome with the highest posterior probability (in
+	 *  the case of a tie, the syndrome that sorts first is chosen).
+	 *  If the threshold is greater than or equal to 0, then the string
+	 *  comprises those syndromes having a posterior probability greater
+	 *  than or equal to the threshold.  If no syndrome has such a posterior
+	 *  probability, then return an empty string.
+	 */
+	String posterior_probs_to_syndrome_string(
+		double[] complaint_prob) {
+		String syndrome_string;
+		int loop;
+
+		if (threshold < 0.0) {
+			int predict = predict(complaint_prob);
+
+			if (predict < 0) {
+				syndrome_string = "Other";
+			} else {
+				syndrome_string = syndrome_lookup[predict];
+			}
+		} else {
+			StringBuffer sbuff = new StringBuffer();
+
+			for (loop = 0; loop < syndrome_count; loop++) {
+				if (complaint_prob[loop] >= threshold) {
+					if (sbuff.length() > 0) {
+						sbuff.append(',');
+					}
+
+					sbuff.append(syndrome_lookup[loop]);
+				}
+			}
+
+			syndrome_string = sbuff.toString();
+		}
+
+		return syndrome_string;
+	}
+
+	/*
+	 *  The syndrome with the highest posterior probability (the first
+	 *  one on a tie), or -1 for a complaint that scored zero everywhere
+	 *  and is reported as "Other".
+	 */
+	int predict(double[] complaint_prob) {
+		int predict = 0;
+
+		for (int loop = 1; loop < syndrome_count; loop++) {
+			if (complaint_prob[loop] > complaint_prob[predict]) {
+				predict = loop;
+			}
+		}
+
+		return syndrome_count == 0 || complaint_prob[predict] == 0.0
+			? -1
+			: predict;
+	}
+
+	/*
+	 *  Compute the posterior probability for a complaint string with
+	 *  respect to each syndrome using a Bayesian classifier.  Return
+	 *  the set of posterior probabilities.  A complaint without any
+	 *  words gets all-zero probabilities.
+	 *  The products are accumulated as sums of logarithms, so long
+	 *  complaints no longer underflow to zero; a syndrome that none of
+	 *  the words are listed under scores -infinity, which plays the role
+	 *  of the zero numerator.
+	 */
+	double[] compute_posterior_probs(int[] complaint_word) {
+		double complaint_prob[] = new double[syndrome_count];
+		double complaint_log_num[] = log_prior_prob.clone();
+		long found[] = new long[mask_words];
+		long wordpair_found[] = new long[mask_words];
+		double wordpair_prob[] = new double[syndrome_count];
+		double max_log_num = Double.NEGATIVE_INFINITY;
+		double complaint_prob_den = 0.0;
+		int loop;
+		int loop1;
+		int loop2;
+
+		if (complaint_word.length == 0) {
+			return complaint_prob;
+		}
+
+		int complaint_pair[] =
+			weight_2_tuple > 0.0 ? complaint_pairs(complaint_word) : null;
+
+		for (loop2 = 0; loop2 < complaint_word.length; loop2++) {
+			int word_index = complaint_word[loop2];
+			int base = word_index * syndrome_count;
+
+			if (word_index >= 0) {
+				for (loop = 0; loop < mask_words; loop++) {
+					found[loop] |= word_found.get(word_index * mask_words + loop);
+				}
+			}
+
+			if (loop2 == 0) {
+				/*
+				 *  The first word has no predecessor and is not weighted.
+				 */
+				if (word_index < 0) {
+					for (loop1 = 0; loop1 < syndrome_count; loop1++) {
+						complaint_log_num[loop1] += log_default_prob;
+					}
+				} else {
+					for (loop1 = 0; loop1 < syndrome_count; loop1++) {
+						complaint_log_num[loop1] +=
+							log_prob_1_tuple.get(base + loop1);
+					}
+				}
+			} else if (weight_2_tuple > 0.0) {
+				int wordpair_index = complaint_pair[loop2 - 1];
+
+				Arrays.fill(wordpair_prob, default_prob);
+
+				if (wordpair_index >= 0) {
+					int end = prob_2_tuple.row_end(wordpair_index);
+
+					for (loop = prob_2_tuple.row_start(wordpair_index);
+						loop < end;
+						loop++) {
+						loop1 = prob_2_tuple.syndrome(loop);
+						wordpair_prob[loop1] = prob_2_tuple.prob(loop);
+						wordpair_found[loop1 >>> 6] |= 1L << loop1;
+					}
+				}
+
+				for (loop1 = 0; loop1 < syndrome_count; loop1++) {
+					double word_prob =
+						word_index < 0
+							? default_prob
+							: Math.exp(log_prob_1_tuple.get(base + loop1));
+
+					complaint_log_num[loop1] +=
+						Math.log(
+							(weight_2_tuple * wordpair_prob[loop1])
+								+ (weight_1_tuple * word_prob));
+				}
+			} else if (word_index < 0) {
+				for (loop1 = 0; loop1 < syndrome_count; loop1++) {
+					complaint_log_num[loop1] +=
+						log_default_prob + log_weight_1_tuple;
+				}
+			} else {
+				for (loop1 = 0; loop1 < syndrome_count; loop1++) {
+					complaint_log_num[loop1] +=
+						log_prob_1_tuple.get(base + loop1) + log_weight_1_tuple;
+				}
+			}
+		}
+
+		for (loop1 = 0; loop1 < syndrome_count; loop1++) {
+			if ((found[loop1 >>> 6] & (1L << loop1)) == 0
+				|| (weight_2_tuple > 0.0
+					&& (wordpair_found[loop1 >>> 6] & (1L << loop1)) == 0)) {
+				complaint_log_num[loop1] = Double.NEGATIVE_INFINITY;
+			}
+
+			if (complaint_log_num[loop1] > max_log_num) {
+				max_log_num = complaint_log_num[loop1];
+			}
+		}
+
+		if (max_log_num == Double.NEGATIVE_INFINITY) {
+			return complaint_prob;
+		}
+
+		for (loop1 = 0; loop1 < syndrome_count; loop1++) {
+			complaint_prob[loop1] =
+				Math.exp(complaint_log_num[loop1] - max_log_num);
+			complaint_prob_den += complaint_prob[loop1];
+		}
+
+		for (loop1 = 0; loop1 < syndrome_count; loop1++) {
+			complaint_prob[loop1] /= complaint_prob_den;
+		}
+
+		return complaint_prob;
+	}
+}
@@ -0,0 +1,331 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/*
+ *  Binary model file.
+ *  A compiled model is written once from a text probability file and
+ *  then memory-mapped by every process that classifies with it.  The
+ *  tables are used straight out of the mapping, so loading costs a
+ *  header read and the pages the classifier actually touches, not a
+ *  parse of every line.
+ *  Layout (little-endian, every array starts on an 8-byte boundary):
+ *  header     - magic "CoCoModl", int version, double default_prob the
+ *  tables were compiled with
+ *  syndromes  - double prior_prob[] (its length is the syndrome count),
+ *  int name_offset[], char names[]
+ *  vocabulary - int word_offset[], char words[], int bucket_seed[],
+ *  int slot_fingerprint[], int slot_word[]
+ *  unigrams   - float log_prob_1_tuple[], long word_found[]
+ *  pairs      - long keys[], int values[]
+ *  bigrams    - int row_start[], int syndrome[], float prob[]
+ *  Each array is preceded by its length (an int padded to 8 bytes).
+ *  Mappings are limited to 2 GB.  A length that runs past the end of
+ *  the mapping raises BufferUnderflowException, which CoCo_model.map
+ *  reports as a truncated file.
+ */
+/**
+ *  Reader and writer for compiled CoCo model files.
+ */
+final class CoCo_model_file {
+
+	static final int VERSION = 1;
+	private static final byte MAGIC[] = {'C', 'o', 'C', 'o', 'M', 'o', 'd', 'l'};
+
+	private final ByteBuffer buffer;
+	private final FileChannel channel;
+	private long drained = 0;
+
+	private CoCo_model_file(ByteBuffer buffer, FileChannel channel) {
+		this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.channel = channel;
+	}
+
+	/**
+	 *  Tells whether a file is a compiled model (as opposed to a text
+	 *  probability file).
+	 *
+	 * @param  file_name  the file
+	 * @return            true if the file starts with the model magic
+	 */
+	static boolean is_model_file(String file_name) {
+		byte head[] = new byte[MAGIC.length];
+
+		try {
+			DataInputStream in =
+				new DataInputStream(new FileInputStream(file_name));
+
+			try {
+				in.readFully(head);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+
+		return java.util.Arrays.equals(head, MAGIC);
+	}
+
+	/**
+	 *  Writes a compiled model.
+	 *
+	 * @param  model                 the model
+	 * @param  model_file_name       the output file
+	 * @exception  IOException       if the file can not be written
+	 */
+	static void write(CoCo_model model, String model_file_name)
+		throws IOException {
+		FileOutputStream out = new FileOutputStream(model_file_name);
+
+		try {
+			CoCo_model_file file =
+				new CoCo_model_file(
+					ByteBuffer.allocateDirect(1 << 16),
+					out.getChannel());
+
+			for (int loop = 0; loop < MAGIC.length; loop++) {
+				file.buffer.put(MAGIC[loop]);
+			}
+
+			model.write(file);
+			file.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 *  Maps a compiled model.
+	 *
+	 * @param  model_file_name       the model file
+	 * @return                       a reader positioned after the magic
+	 * @exception  IOException       if the file can not be mapped or is
+	 *      not a model file
+	 */
+	static CoCo_model_file map(String model_file_name) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(model_file_name, "r");
+
+		try {
+			if (in.length() < MAGIC.length) {
+				throw new IOException(model_file_name + " is not a CoCo model");
+			} else if (in.length() > Integer.MAX_VALUE) {
+				throw new IOException(model_file_name + " is larger than 2 GB");
+			}
+
+			CoCo_model_file file =
+				new CoCo_model_file(
+					in.getChannel().map(
+						FileChannel.MapMode.READ_ONLY,
+						0,
+						in.length()),
+					null);
+
+			for (int loop = 0; loop < MAGIC.length; loop++) {
+				if (file.buffer.get() != MAGIC[loop]) {
+					throw new IOException(model_file_name + " is not a CoCo model");
+				}
+			}
+
+			return file;
+		} finally {
+			/*
+			 *  The mapping stays valid after the channel is closed.
+			 */
+			in.close();
+		}
+	}
+
+	/*
+	 *  Writing.  Values go into a direct staging buffer that is drained
+	 *  to the channel whenever it fills up.
+	 */
+	void write_int(int value) throws IOException {
+		room(8);
+		buffer.putInt(value);
+		buffer.putInt(0);
+	}
+
+	void write_double(double value) throws IOException {
+		room(8);
+		buffer.putDouble(value);
+	}
+
+	void write_ints(IntBuffer values) throws IOException {
+		int count = values.limit();
+
+		write_int(count);
+
+		for (int loop = 0; loop < count; loop++) {
+			room(4);
+			buffer.putInt(values.get(loop));
+		}
+
+		pad();
+	}
+
+	void write_longs(LongBuffer values) throws IOException {
+		int count = values.limit();
+
+		write_int(count);
+
+		for (int loop = 0; loop < count; loop++) {
+			room(8);
+			buffer.putLong(values.get(loop));
+		}
+	}
+
+	void write_floats(FloatBuffer values) throws IOException {
+		int count = values.limit();
+
+		write_int(count);
+
+		for (int loop = 0; loop < count; loop++) {
+			room(4);
+			buffer.putFloat(values.get(loop));
+		}
+
+		pad();
+	}
+
+	void write_doubles(DoubleBuffer values) throws IOException {
+		int count = values.limit();
+
+		write_int(count);
+
+		for (int loop = 0; loop < count; loop++) {
+			write_double(values.get(loop));
+		}
+	}
+
+	void write_chars(CharBuffer values) throws IOException {
+		int count = values.limit();
+
+		write_int(count);
+
+		for (int loop = 0; loop < count; loop++) {
+			room(2);
+			buffer.putChar(values.get(loop));
+		}
+
+		pad();
+	}
+
+	private void room(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			drain();
+		}
+	}
+
+	/*
+	 *  Keep the next array 8-byte aligned in the file.
+	 */
+	private void pad() throws IOException {
+		while (((drained + buffer.position()) & 7) != 0) {
+			room(1);
+			buffer.put((byte) 0);
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			drained += channel.write(buffer);
+		}
+
+		buffer.clear();
+	}
+
+	private void flush() throws IOException {
+		pad();
+		drain();
+	}
+
+	/*
+	 *  Reading.  Arrays are returned as views of the mapping; nothing is
+	 *  copied.
+	 */
+	int read_int() {
+		int value = buffer.getInt();
+
+		buffer.getInt();
+
+		return value;
+	}
+
+	double read_double() {
+		return buffer.getDouble();
+	}
+
+	IntBuffer read_ints() {
+		int count = read_int();
+
+		return section(count, 4).asIntBuffer();
+	}
+
+	LongBuffer read_longs() {
+		int count = read_int();
+
+		return section(count, 8).asLongBuffer();
+	}
+
+	FloatBuffer read_floats() {
+		int count = read_int();
+
+		return section(count, 4).asFloatBuffer();
+	}
+
+	DoubleBuffer read_doubles() {
+		int count = read_int();
+
+		return section(count, 8).asDoubleBuffer();
+	}
+
+	CharBuffer read_chars() {
+		int count = read_int();
+
+		return section(count, 2).asCharBuffer();
+	}
+
+	/*
+	 *  The next count values of size bytes, checked against the end of
+	 *  the mapping.
+	 */
+	private ByteBuffer section(int count, int size) {
+		long bytes = (long) count * size;
+
+		if (count < 0 || bytes > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+
+		ByteBuffer section = buffer.duplicate();
+
+		section.limit(buffer.position() + (int) bytes);
+		buffer.position(
+			(int) Math.min(buffer.limit(), (buffer.position() + bytes + 7) & ~7));
+
+		return section.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,285 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ *  Holder for the model of a process, with optional hot reload.
+ *  The current model and the file it came from are kept together in one
+ *  AtomicReference, so publishing a new model is a single reference
+ *  swap.  Readers call get() once per classification and never block:
+ *  a classification that started on the old model finishes on it, and
+ *  the old model is collected once nobody uses it any more.
+ *  watch() starts a daemon thread that watches the model's directory
+ *  with a WatchService.  When the file is modified or replaced, the
+ *  thread waits until the directory has been quiet for SETTLE_MILLIS
+ *  (a file is usually written in several steps), builds the new model
+ *  in the background and swaps it in.  If the new file can not be read
+ *  the old model stays in place and the error is printed; the next
+ *  change to the file is tried again.
+ *  Listeners added with on_change() run on the thread that swapped the
+ *  model, right after the swap; caches of results use this to drop
+ *  what they computed with the old model.
+ *  A compiled model file is used in place through its mapping, so it
+ *  must be replaced by writing a new file and renaming it over the old
+ *  one, never rewritten in place.
+ */
+/**
+ *  Reloadable model reference.
+ */
+public final class CoCo_model_holder {
+
+	private static final long SETTLE_MILLIS = 250;
+
+	private final AtomicReference<Loaded> current =
+		new AtomicReference<Loaded>();
+	private final Object reload_lock = new Object();
+	private WatchService watcher = null;
+	private volatile int reload_count = 0;
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+
+	/*
+	 *  A model and the file it was loaded from.
+	 */
+	private static final class Loaded {
+
+		final String file_name;
+		final CoCo_model model;
+
+		Loaded(String file_name, CoCo_model model) {
+			this.file_name = file_name;
+			this.model = model;
+		}
+	}
+
+	/**
+	 *  The current model.
+	 *
+	 * @return    the model, or null if none has been set
+	 */
+	public CoCo_model get() {
+		Loaded loaded = current.get();
+
+		return loaded == null ? null : loaded.model;
+	}
+
+	/**
+	 *  The file the current model was loaded from.
+	 *
+	 * @return    the file name, or null if no model has been set
+	 */
+	public String source() {
+		Loaded loaded = current.get();
+
+		return loaded == null ? null : loaded.file_name;
+	}
+
+	/**
+	 *  Number of models swapped in by reload() or the watcher.
+	 *
+	 * @return    the reload count
+	 */
+	public int reload_count() {
+		return reload_count;
+	}
+
+	/**
+	 *  Publishes a model.  If the holder is watching and the model comes
+	 *  from another directory, the watcher moves there.
+	 *
+	 * @param  file_name  the file the model was loaded from
+	 * @param  model      the model
+	 */
+	public void set(String file_name, CoCo_model model) {
+		synchronized (reload_lock) {
+			Loaded old = current.getAndSet(new Loaded(file_name, model));
+
+			changed();
+
+			if (watcher != null
+				&& (old == null
+					|| !directory(old.file_name).equals(directory(file_name)))) {
+				unwatch();
+				watch();
+			}
+		}
+	}
+
+	/**
+	 *  Adds a listener to run whenever a model is swapped in.
+	 *
+	 * @param  listener  the listener
+	 */
+	public void on_change(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 *  Loads the current file again and swaps the new model in.
+	 *
+	 * @return                   the new model
+	 * @exception  IOException  if the file can not be read; the old model
+	 *      stays in place
+	 */
+	public CoCo_model reload() throws IOException {
+		synchronized (reload_lock) {
+			Loaded old = current.get();
+
+			if (old == null) {
+				throw new IOException("CoCo: no model to reload");
+			}
+
+			CoCo_model model = CoCo_batch.read_model(old.file_name);
+
+			current.set(new Loaded(old.file_name, model));
+			reload_count++;
+			changed();
+
+			return model;
+		}
+	}
+
+	/**
+	 *  Starts watching the current file.  Does nothing if the holder is
+	 *  already watching or has no model yet.
+	 */
+	public void watch() {
+		synchronized (reload_lock) {
+			Loaded loaded = current.get();
+
+			if (watcher != null || loaded == null) {
+				return;
+			}
+
+			try {
+				Path directory = directory(loaded.file_name);
+
+				watcher = directory.getFileSystem().newWatchService();
+				directory.register(
+					watcher,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			} catch (IOException e) {
+				System.out.print(
+					"ERROR! Can not watch file: " + loaded.file_name + "\n\n");
+				watcher = null;
+
+				return;
+			}
+
+			final WatchService service = watcher;
+			Thread thread =
+				new Thread(new Runnable() {
+					public void run() {
+						watch(service);
+					}
+				}, "CoCo model watcher");
+
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 *  Stops watching.
+	 */
+	public void unwatch() {
+		synchronized (reload_lock) {
+			if (watcher != null) {
+				try {
+					watcher.close();
+				} catch (IOException e) {
+				}
+
+				watcher = null;
+			}
+		}
+	}
+
+	/*
+	 *  Watcher thread body.  Runs until the service is closed.
+	 */
+	private void watch(WatchService service) {
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				boolean changed = false;
+
+				/*
+				 *  Collect events until the directory has been quiet for
+				 *  a while, then reload at most once.
+				 */
+				while (key != null) {
+					changed |= touches_model(key);
+					key.reset();
+					key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+				}
+
+				if (changed) {
+					try {
+						reload();
+					} catch (IOException e) {
+						System.out.print(e.getMessage() + "\n");
+						System.out.print(
+							"ERROR! Can not read file: " + source() + "\n\n");
+					} catch (RuntimeException e) {
+						/*
+						 *  A half-written or corrupt file; keep the old model
+						 *  and keep watching.
+						 */
+						System.out.print(e + "\n");
+						System.out.print(
+							"ERROR! Can not read file: " + source() + "\n\n");
+					}
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+		} catch (InterruptedException e) {
+		}
+	}
+
+	private void changed() {
+		for (Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+
+	private boolean touches_model(WatchKey key) {
+		Path file_name = Paths.get(source()).getFileName();
+		boolean touched = false;
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (file_name.equals(event.context())) {
+				touched = true;
+			}
+		}
+
+		return touched;
+	}
+
+	private static Path directory(String file_name) {
+		return Paths.get(file_name).toAbsolutePath().getParent();
+	}
+}
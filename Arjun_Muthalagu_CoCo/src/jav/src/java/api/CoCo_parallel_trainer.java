@@ -0,0 +1,165 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ *  Fork-join map-reduce training.
+ *  The training file is cut into ranges of about range_bytes bytes
+ *  (at least threads * RANGES_PER_THREAD ranges for a large file), each
+ *  starting at a line start as CoCo_directory_batch cuts its shards, so
+ *  no line is split.  A range task counts its lines into a trainer of
+ *  its own; a task over several ranges forks its halves and merges the
+ *  right half's trainer into the left one's, so the partial counts are
+ *  combined in a reduction tree on the ForkJoinPool with no locking.
+ *  Because every merge puts the earlier part first (see
+ *  CoCo_trainer.merge), the ids, and so the probability file, are the
+ *  same as a single trainer reading the whole file gives, whatever the
+ *  number of threads.
+ */
+/**
+ *  Trains on a training file with a fork-join pool.
+ */
+final class CoCo_parallel_trainer {
+
+	private static final int RANGES_PER_THREAD = 4;
+
+	/*
+	 *  Smallest range in bytes; smaller ones cost more to merge than they
+	 *  save.
+	 */
+	static long range_bytes = 1L << 20;
+
+	/*
+	 *  Counts the lines of ranges [first, last) of the training file.
+	 */
+	private static final class Range_task extends RecursiveTask<CoCo_trainer> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String train_file_name;
+		private final long bound[];
+		private final int first;
+		private final int last;
+
+		Range_task(String train_file_name, long bound[], int first, int last) {
+			this.train_file_name = train_file_name;
+			this.bound = bound;
+			this.first = first;
+			this.last = last;
+		}
+
+		protected CoCo_trainer compute() {
+			if (last - first > 1) {
+				int middle = (first + last) >>> 1;
+				Range_task right =
+					new Range_task(train_file_name, bound, middle, last);
+
+				right.fork();
+
+				CoCo_trainer trainer =
+					new Range_task(train_file_name, bound, first, middle).compute();
+
+				trainer.merge(right.join());
+
+				return trainer;
+			}
+
+			CoCo_trainer trainer = new CoCo_trainer();
+
+			try {
+				FileChannel channel = FileChannel.open(Paths.get(train_file_name));
+
+				channel.position(bound[first]);
+				trainer.read(
+					new CoCo_directory_batch.Range_stream(
+						Channels.newInputStream(channel),
+						bound[last] - bound[first]),
+					train_file_name);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			return trainer;
+		}
+	}
+
+	private CoCo_parallel_trainer() {
+	}
+
+	/**
+	 *  Reads a training file on a fork-join pool.
+	 *
+	 * @param  train_file_name  file of complaint,syndrome[,syndrome...]
+	 *      lines
+	 * @param  threads          number of fork-join workers (at least 1)
+	 * @return                  the counts of the whole file
+	 * @exception  IOException  if the file can not be read
+	 */
+	static CoCo_trainer read(String train_file_name, int threads)
+		throws IOException {
+		List<Long> bounds = new ArrayList<Long>();
+		FileChannel in = FileChannel.open(Paths.get(train_file_name));
+
+		threads = Math.max(1, threads);
+
+		try {
+			long size = in.size();
+			long length =
+				Math.max(range_bytes, size / ((long) threads * RANGES_PER_THREAD));
+			long start = 0;
+
+			bounds.add(Long.valueOf(0));
+
+			while (start < size) {
+				start = CoCo_directory_batch.line_start(in, start + length, size);
+				bounds.add(Long.valueOf(start));
+			}
+		} finally {
+			in.close();
+		}
+
+		if (bounds.size() == 1) {
+			return new CoCo_trainer();
+		}
+
+		long bound[] = new long[bounds.size()];
+
+		for (int loop = 0; loop < bound.length; loop++) {
+			bound[loop] = bounds.get(loop).longValue();
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+
+		try {
+			return pool.invoke(
+				new Range_task(train_file_name, bound, 0, bound.length - 1));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ *  Staged batch classifier: a reader, a pool of classifier workers and a
+ *  writer.
+ *  The reader (the calling thread) cuts the complaint file into chunks of
+ *  CHUNK_LINES lines and gives each a sequence number.  Lines are cut
+ *  from the raw bytes (see CoCo_line_reader) and decoded with the
+ *  platform charset, so every chunk knows how many input bytes it
+ *  covers.  Every chunk goes onto two queues: the work queue, from which
+ *  any idle worker takes it and classifies its lines, and the order
+ *  queue, which the writer takes chunks from in sequence order.  The writer waits for each chunk to
+ *  be classified before writing it, so the classification file has
+ *  exactly the line order of the complaint file no matter which worker
+ *  finishes first.
+ *  The order queue holds at most IN_FLIGHT chunks per worker; when it is
+ *  full the reader waits, which bounds memory however far the workers
+ *  or the writer fall behind.
+ *  The model is immutable, so the workers share it without locking.
+ *  The writer encodes each distinct result once and counts the bytes
+ *  it writes; after every chunk it reports the input and output bytes
+ *  to the run's checkpoint, if it has one (see CoCo_checkpoint).
+ */
+/**
+ *  Parallel, order-preserving batch classifier.
+ */
+final class CoCo_pipeline {
+
+	static final int CHUNK_LINES = 4096;
+	private static final int IN_FLIGHT = 4;
+
+	private final CoCo_model model;
+	private final int workers;
+
+	/*
+	 *  A run of consecutive complaint lines and their classifications.
+	 */
+	private static final class Chunk {
+
+		final long sequence;
+		final String line[];
+		int count = 0;
+		long input_bytes = 0;
+		String syndrome[];
+		Throwable failure = null;
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		Chunk(long sequence, int capacity) {
+			this.sequence = sequence;
+			line = new String[capacity];
+		}
+	}
+
+	/*
+	 *  Marks the end of the input on both queues.
+	 */
+	private static final Chunk END = new Chunk(-1, 0);
+
+	/**
+	 *  Creates a pipeline.
+	 *
+	 * @param  model    the model to classify with
+	 * @param  workers  number of classifier threads (at least 1)
+	 */
+	CoCo_pipeline(CoCo_model model, int workers) {
+		this.model = model;
+		this.workers = Math.max(1, workers);
+	}
+
+	/**
+	 *  Classifies every line of 'in' and writes one syndrome string per
+	 *  line to 'out', in input order.  'out' is flushed but not closed.
+	 *
+	 * @param  in               preprocessed complaints, one per line
+	 * @param  out              classifications
+	 * @param  checkpoint       checkpoint to report progress to, or null
+	 * @return                  the number of lines classified
+	 * @exception  IOException  if reading or writing fails
+	 */
+	long run(
+		InputStream in,
+		final OutputStream out,
+		final CoCo_checkpoint checkpoint)
+		throws IOException {
+		CoCo_line_reader reader = new CoCo_line_reader(in);
+		Charset charset = Charset.defaultCharset();
+		final BlockingQueue<Chunk> work = new LinkedBlockingQueue<Chunk>();
+		final BlockingQueue<Chunk> order =
+			new ArrayBlockingQueue<Chunk>(workers * IN_FLIGHT);
+		final Throwable write_failure[] = new Throwable[1];
+		Thread worker[] = new Thread[workers];
+		long sequence = 0;
+		long lines = 0;
+		int loop;
+
+		for (loop = 0; loop < workers; loop++) {
+			worker[loop] =
+				new Thread(new Runnable() {
+					public void run() {
+						classify(work);
+					}
+				}, "CoCo classifier " + loop);
+			worker[loop].setDaemon(true);
+			worker[loop].start();
+		}
+
+		Thread writer =
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						write(order, out, checkpoint);
+					} catch (Throwable e) {
+						write_failure[0] = e;
+						order.clear();
+					}
+				}
+			}, "CoCo writer");
+
+		writer.setDaemon(true);
+		writer.start();
+
+		try {
+			while (writer.isAlive()) {
+				Chunk chunk = new Chunk(sequence++, CHUNK_LINES);
+				long chunk_start = reader.offset();
+
+				while (chunk.count < CHUNK_LINES && reader.next_line()) {
+					chunk.line[chunk.count++] =
+						new String(
+							reader.bytes(),
+							reader.line_start(),
+							reader.line_end() - reader.line_start(),
+							charset);
+				}
+
+				chunk.input_bytes = reader.offset() - chunk_start;
+
+				if (chunk.count > 0) {
+					lines += chunk.count;
+					put(order, chunk, writer);
+					work.add(chunk);
+				}
+
+				if (chunk.count < CHUNK_LINES) {
+					break;
+				}
+			}
+		} finally {
+			put(order, END, writer);
+
+			for (loop = 0; loop < workers; loop++) {
+				work.add(END);
+			}
+
+			join(writer);
+		}
+
+		if (write_failure[0] instanceof IOException) {
+			throw (IOException) write_failure[0];
+		} else if (write_failure[0] != null) {
+			throw new IOException(write_failure[0].toString());
+		}
+
+		return lines;
+	}
+
+	/*
+	 *  Worker thread body.
+	 */
+	private void classify(BlockingQueue<Chunk> work) {
+		while (true) {
+			Chunk chunk;
+
+			try {
+				chunk = work.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (chunk == END) {
+				return;
+			}
+
+			try {
+				String syndrome[] = new String[chunk.count];
+
+				for (int loop = 0; loop < chunk.count; loop++) {
+					syndrome[loop] = model.classify_words(chunk.line[loop]);
+				}
+
+				chunk.syndrome = syndrome;
+			} catch (Throwable e) {
+				chunk.failure = e;
+			}
+
+			chunk.done.countDown();
+		}
+	}
+
+	/*
+	 *  Writer thread body.
+	 */
+	private static void write(
+		BlockingQueue<Chunk> order,
+		OutputStream out,
+		CoCo_checkpoint checkpoint)
+		throws Exception {
+		Map<String, byte[]> encoded = new HashMap<String, byte[]>();
+		long expected = 0;
+
+		while (true) {
+			Chunk chunk = order.take();
+
+			if (chunk == END) {
+				break;
+			}
+
+			if (chunk.sequence != expected++) {
+				throw new IllegalStateException(
+					"CoCo: chunk " + chunk.sequence + " out of order");
+			}
+
+			chunk.done.await();
+
+			if (chunk.failure != null) {
+				throw new IOException(
+					"CoCo: chunk " + chunk.sequence + ": " + chunk.failure);
+			}
+
+			long output_bytes = 0;
+
+			for (int loop = 0; loop < chunk.count; loop++) {
+				byte record[] = encoded.get(chunk.syndrome[loop]);
+
+				if (record == null) {
+					record = (chunk.syndrome[loop] + "\n").getBytes();
+					encoded.put(chunk.syndrome[loop], record);
+				}
+
+				out.write(record);
+				output_bytes += record.length;
+			}
+
+			if (checkpoint != null) {
+				checkpoint.advance(chunk.input_bytes, output_bytes, chunk.count);
+			}
+		}
+
+		out.flush();
+	}
+
+	/*
+	 *  Queue a chunk for the writer unless the writer has died, in which
+	 *  case nobody will ever take it.
+	 */
+	private static void put(
+		BlockingQueue<Chunk> order,
+		Chunk chunk,
+		Thread writer)
+		throws IOException {
+		try {
+			while (!order.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+				if (!writer.isAlive()) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	private static void join(Thread thread) throws IOException {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+/*
+ *  Columnar posterior file.
+ *  Batch mode with -posterior writes the whole posterior probability
+ *  vector of every complaint instead of its label, one float column per
+ *  syndrome, so a later aggregation over one syndrome reads one
+ *  contiguous column and nothing else.
+ *  Layout (little-endian):
+ *  header     - magic "CoCoPost", int version, int syndrome_count,
+ *  long record_count, double threshold of the model that wrote it,
+ *  long data_offset
+ *  dictionary - for each syndrome an int byte count and the UTF-8 name
+ *  columns    - from data_offset (a multiple of 64): for each syndrome
+ *  record_count floats, the probabilities of records 0 .. n - 1
+ *  Column s starts at data_offset + 4 * s * record_count.  Each column
+ *  is mapped on its own, so a column is limited to 2 GB (about 500
+ *  million records).
+ *  The writer (CoCo_posterior_writer) does not know the record count
+ *  until the end, so it spills each column to a file of its own and
+ *  puts header and columns together when the run is complete.
+ */
+/**
+ *  Memory-mapped reader for columnar posterior files.
+ */
+public final class CoCo_posterior_file {
+
+	static final int VERSION = 1;
+	static final byte MAGIC[] = {'C', 'o', 'C', 'o', 'P', 'o', 's', 't'};
+	static final int ALIGNMENT = 64;
+
+	private final String syndrome_lookup[];
+	private final long record_count;
+	private final double threshold;
+	private final FloatBuffer column[];
+
+	private CoCo_posterior_file(
+		String syndrome_lookup[],
+		long record_count,
+		double threshold,
+		FloatBuffer column[]) {
+		this.syndrome_lookup = syndrome_lookup;
+		this.record_count = record_count;
+		this.threshold = threshold;
+		this.column = column;
+	}
+
+	/**
+	 *  Maps a posterior file.
+	 *
+	 * @param  file_name        the posterior file
+	 * @return                  the reader
+	 * @exception  IOException  if the file can not be mapped or is not a
+	 *      posterior file
+	 */
+	public static CoCo_posterior_file open(String file_name)
+		throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file_name, "r");
+
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer header =
+				channel.map(
+					FileChannel.MapMode.READ_ONLY,
+					0,
+					Math.min(channel.size(), Integer.MAX_VALUE))
+					.order(ByteOrder.LITTLE_ENDIAN);
+
+			for (int loop = 0; loop < MAGIC.length; loop++) {
+				if (header.remaining() == 0 || header.get() != MAGIC[loop]) {
+					throw new IOException(file_name + " is not a CoCo posterior file");
+				}
+			}
+
+			if (header.getInt() != VERSION) {
+				throw new IOException(file_name + ": unknown posterior file version");
+			}
+
+			int syndrome_count = header.getInt();
+			long record_count = header.getLong();
+			double threshold = header.getDouble();
+			long data_offset = header.getLong();
+			String syndrome_lookup[] = new String[syndrome_count];
+			FloatBuffer column[] = new FloatBuffer[syndrome_count];
+
+			for (int loop = 0; loop < syndrome_count; loop++) {
+				byte name[] = new byte[header.getInt()];
+
+				header.get(name);
+				syndrome_lookup[loop] = new String(name, StandardCharsets.UTF_8);
+			}
+
+			if (data_offset + 4 * syndrome_count * record_count > channel.size()) {
+				throw new IOException(file_name + ": posterior file is truncated");
+			}
+
+			for (int loop = 0; loop < syndrome_count; loop++) {
+				column[loop] =
+					channel.map(
+						FileChannel.MapMode.READ_ONLY,
+						data_offset + 4 * loop * record_count,
+						4 * record_count)
+						.order(ByteOrder.LITTLE_ENDIAN)
+						.asFloatBuffer();
+			}
+
+			return new CoCo_posterior_file(
+				syndrome_lookup,
+				record_count,
+				threshold,
+				column);
+		} catch (BufferUnderflowException e) {
+			throw new IOException(file_name + ": posterior file is truncated");
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 *  Number of records (complaints).
+	 *
+	 * @return    the record count
+	 */
+	public long record_count() {
+		return record_count;
+	}
+
+	/**
+	 *  Number of syndromes (columns).
+	 *
+	 * @return    the syndrome count
+	 */
+	public int syndrome_count() {
+		return syndrome_lookup.length;
+	}
+
+	/**
+	 *  Name of a syndrome.
+	 *
+	 * @param  syndrome  syndrome id
+	 * @return           the syndrome name
+	 */
+	public String syndrome(int syndrome) {
+		return syndrome_lookup[syndrome];
+	}
+
+	/**
+	 *  Threshold of the model that wrote the file (< 0 for argmax).
+	 *
+	 * @return    the threshold
+	 */
+	public double threshold() {
+		return threshold;
+	}
+
+	/**
+	 *  The probabilities of one syndrome for every record, as a view of
+	 *  the mapping; the view is independent, so callers may move its
+	 *  position.
+	 *
+	 * @param  syndrome  syndrome id
+	 * @return           record_count() floats
+	 */
+	public FloatBuffer column(int syndrome) {
+		return column[syndrome].duplicate();
+	}
+
+	/**
+	 *  Probability of one syndrome for one record.
+	 *
+	 * @param  record    record number
+	 * @param  syndrome  syndrome id
+	 * @return           the posterior probability
+	 */
+	public float prob(int record, int syndrome) {
+		return column[syndrome].get(record);
+	}
+
+	/**
+	 *  Sum of one syndrome's probabilities over all records, which is
+	 *  the expected number of complaints of that syndrome.
+	 *
+	 * @param  syndrome  syndrome id
+	 * @return           the sum
+	 */
+	public double sum(int syndrome) {
+		FloatBuffer values = column[syndrome];
+		double sum = 0.0;
+
+		for (int loop = 0, end = values.limit(); loop < end; loop++) {
+			sum += values.get(loop);
+		}
+
+		return sum;
+	}
+}
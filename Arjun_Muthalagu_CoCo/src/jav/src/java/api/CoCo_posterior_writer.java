@@ -0,0 +1,192 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+/*
+ *  Writer for columnar posterior files (see CoCo_posterior_file).
+ *  Every record adds one float to each syndrome's column buffer; a full
+ *  buffer is written to that column's spill file
+ *  (<posterior file>.col<syndrome>).  finish() writes the header and
+ *  dictionary and appends the spill files in syndrome order with
+ *  transferTo, then removes them.
+ */
+/**
+ *  Columnar posterior file writer.
+ */
+final class CoCo_posterior_writer {
+
+	private static final int COLUMN_BYTES = 1 << 16;
+
+	private final String file_name;
+	private final CoCo_model model;
+	private final File spill_file[];
+	private final FileChannel spill[];
+	private final ByteBuffer buffer[];
+	private long record_count = 0;
+
+	/**
+	 *  Starts a posterior file.
+	 *
+	 * @param  file_name        the posterior file
+	 * @param  model            the model whose posteriors are written
+	 * @exception  IOException  if a spill file can not be created
+	 */
+	CoCo_posterior_writer(String file_name, CoCo_model model)
+		throws IOException {
+		int syndrome_count = model.syndrome_count();
+
+		this.file_name = file_name;
+		this.model = model;
+		spill_file = new File[syndrome_count];
+		spill = new FileChannel[syndrome_count];
+		buffer = new ByteBuffer[syndrome_count];
+
+		try {
+			for (int loop = 0; loop < syndrome_count; loop++) {
+				spill_file[loop] = new File(file_name + ".col" + loop);
+				spill[loop] = new RandomAccessFile(spill_file[loop], "rw").getChannel();
+				spill[loop].truncate(0);
+				buffer[loop] =
+					ByteBuffer.allocateDirect(COLUMN_BYTES)
+						.order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} catch (IOException e) {
+			abandon();
+
+			throw e;
+		}
+	}
+
+	/**
+	 *  Adds a record.
+	 *
+	 * @param  complaint_prob   posterior probability of each syndrome
+	 * @exception  IOException  if a spill file can not be written
+	 */
+	void add(double[] complaint_prob) throws IOException {
+		for (int loop = 0; loop < buffer.length; loop++) {
+			if (!buffer[loop].hasRemaining()) {
+				drain(loop);
+			}
+
+			buffer[loop].putFloat((float) complaint_prob[loop]);
+		}
+
+		record_count++;
+	}
+
+	/**
+	 *  Writes the posterior file and removes the spill files.
+	 *
+	 * @return                  the number of records
+	 * @exception  IOException  if the file can not be written
+	 */
+	long finish() throws IOException {
+		int loop;
+
+		for (loop = 0; loop < spill.length; loop++) {
+			drain(loop);
+		}
+
+		ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+		DataOutputStream names = new DataOutputStream(dictionary);
+
+		for (loop = 0; loop < spill.length; loop++) {
+			byte name[] = model.syndrome(loop).getBytes(StandardCharsets.UTF_8);
+
+			names.writeInt(Integer.reverseBytes(name.length));
+			names.write(name);
+		}
+
+		int header_bytes =
+			CoCo_posterior_file.MAGIC.length + 4 + 4 + 8 + 8 + 8 + dictionary.size();
+		long data_offset =
+			(header_bytes + CoCo_posterior_file.ALIGNMENT - 1)
+				/ CoCo_posterior_file.ALIGNMENT
+				* CoCo_posterior_file.ALIGNMENT;
+		ByteBuffer header =
+			ByteBuffer.allocate((int) data_offset).order(ByteOrder.LITTLE_ENDIAN);
+
+		header.put(CoCo_posterior_file.MAGIC);
+		header.putInt(CoCo_posterior_file.VERSION);
+		header.putInt(spill.length);
+		header.putLong(record_count);
+		header.putDouble(model.threshold());
+		header.putLong(data_offset);
+		header.put(dictionary.toByteArray());
+		header.clear();
+
+		FileChannel out = new FileOutputStream(file_name).getChannel();
+
+		try {
+			while (header.hasRemaining()) {
+				out.write(header);
+			}
+
+			for (loop = 0; loop < spill.length; loop++) {
+				long position = 0;
+				long size = spill[loop].size();
+
+				while (position < size) {
+					position +=
+						spill[loop].transferTo(position, size - position, out);
+				}
+			}
+		} finally {
+			out.close();
+			abandon();
+		}
+
+		return record_count;
+	}
+
+	/**
+	 *  Closes and removes the spill files.
+	 */
+	void abandon() {
+		for (int loop = 0; loop < spill.length; loop++) {
+			if (spill[loop] != null) {
+				try {
+					spill[loop].close();
+				} catch (IOException e) {
+				}
+			}
+
+			if (spill_file[loop] != null) {
+				spill_file[loop].delete();
+			}
+		}
+	}
+
+	private void drain(int syndrome) throws IOException {
+		buffer[syndrome].flip();
+
+		while (buffer[syndrome].hasRemaining()) {
+			spill[syndrome].write(buffer[syndrome]);
+		}
+
+		buffer[syndrome].clear();
+	}
+}
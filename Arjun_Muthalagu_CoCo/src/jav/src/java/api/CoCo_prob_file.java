@@ -0,0 +1,499 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+
+/*
+ *  Single-pass loader for text probability files.
+ *  A probability file has three sections, each headed by its line
+ *  count:
+ *  priors   - syndrome,prob
+ *  unigrams - syndrome,word,prob
+ *  bigrams  - syndrome,word1,word2,prob
+ *  The header counts give every table size up front, so the file is read
+ *  once, front to back, in large blocks (see CoCo_line_reader).  Lines are cut into fields in
+ *  place in the byte buffer (empty fields are skipped, as split() does);
+ *  syndromes and words are interned straight from their bytes, so a
+ *  String is made only the first time a name is seen; and numbers are
+ *  parsed from the bytes.  Ids are handed out in order of first
+ *  appearance, exactly as the old two-pass loader did.
+ *  Numbers of at most 18 significant digits and a power of ten no larger
+ *  than 22 are converted with one exact long to double conversion and one
+ *  correctly rounded division, which gives the same double as
+ *  Double.valueOf(); anything else (exponents, long fractions, NaN) is
+ *  handed to Double.valueOf().
+ */
+/**
+ *  Text probability file loader.
+ */
+final class CoCo_prob_file {
+
+	private static final double POWER_OF_TEN[] = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	private final String prob_file_name;
+	private final InputStream in;
+	private final CoCo_line_reader reader;
+	private byte buffer[];
+
+	/*
+	 *  The current line is buffer[line_start, line_end); its fields are
+	 *  buffer[field_start[i], field_end[i]).
+	 */
+	private int line_start;
+	private int line_end;
+	private final int field_start[] = new int[4];
+	private final int field_end[] = new int[4];
+
+	private CoCo_prob_file(String prob_file_name) throws IOException {
+		this.prob_file_name = prob_file_name;
+		in = new FileInputStream(prob_file_name);
+		reader = new CoCo_line_reader(in);
+	}
+
+	/**
+	 *  Loads a text probability file.
+	 *
+	 * @param  prob_file_name    the probability file
+	 * @param  weight_1_tuple    unigram weight
+	 * @param  weight_2_tuple    bigram weight
+	 * @param  threshold         classification threshold (< 0 for argmax)
+	 * @param  default_prob      probability used for unseen words
+	 * @param  missing_prob      sentinel marking an absent table entry
+	 * @return                   the model
+	 * @exception  IOException  if the file can not be read or is malformed
+	 */
+	static CoCo_model load(
+		String prob_file_name,
+		double weight_1_tuple,
+		double weight_2_tuple,
+		double threshold,
+		double default_prob,
+		double missing_prob)
+		throws IOException {
+		CoCo_prob_file file = new CoCo_prob_file(prob_file_name);
+
+		try {
+			return file.load(
+				weight_1_tuple,
+				weight_2_tuple,
+				threshold,
+				default_prob,
+				missing_prob);
+		} finally {
+			file.in.close();
+		}
+	}
+
+	private CoCo_model load(
+		double weight_1_tuple,
+		double weight_2_tuple,
+		double threshold,
+		double default_prob,
+		double missing_prob)
+		throws IOException {
+		int loop;
+
+		/*
+		 *  Priors.
+		 */
+		int prior_prob_count = count();
+		Symbol_table syndromes = new Symbol_table(prior_prob_count);
+		double prior[] = new double[prior_prob_count];
+
+		for (loop = 0; loop < prior_prob_count; loop++) {
+			record(2);
+
+			int syndrome =
+				syndromes.intern(buffer, field_start[0], field_end[0], true);
+
+			prior[syndrome] = number(1);
+		}
+
+		int syndrome_count = syndromes.size();
+
+		/*
+		 *  Unigrams.  The table is filled in once the word count is known;
+		 *  until then the entries are kept in file order.
+		 */
+		int prob_1_tuple_count = count();
+		int entry_1_syndrome[] = new int[prob_1_tuple_count];
+		int entry_1_word[] = new int[prob_1_tuple_count];
+		double entry_1_prob[] = new double[prob_1_tuple_count];
+		Symbol_table words = new Symbol_table(prob_1_tuple_count);
+
+		for (loop = 0; loop < prob_1_tuple_count; loop++) {
+			record(3);
+			entry_1_syndrome[loop] = syndrome(syndromes);
+			entry_1_word[loop] =
+				words.intern(buffer, field_start[1], field_end[1], true);
+			entry_1_prob[loop] = number(2);
+		}
+
+		/*
+		 *  Bigrams.  Word pairs are keyed by the ids of their two words,
+		 *  so a word that is only listed in a pair still gets an id.
+		 */
+		int prob_2_tuple_count = count();
+		CoCo_long_int_map wordpairs = new CoCo_long_int_map(prob_2_tuple_count);
+		int wordpair_count = 0;
+		int entry_pair[] = new int[prob_2_tuple_count];
+		int entry_syndrome[] = new int[prob_2_tuple_count];
+		double entry_prob[] = new double[prob_2_tuple_count];
+
+		for (loop = 0; loop < prob_2_tuple_count; loop++) {
+			record(4);
+
+			int syndrome = syndrome(syndromes);
+			long wordpair =
+				CoCo_long_int_map.pair_key(
+					words.intern(buffer, field_start[1], field_end[1], true),
+					words.intern(buffer, field_start[2], field_end[2], true));
+			int pair = wordpairs.get(wordpair);
+
+			if (pair < 0) {
+				pair = wordpair_count++;
+				wordpairs.put(wordpair, pair);
+			}
+
+			entry_syndrome[loop] = syndrome;
+			entry_pair[loop] = pair;
+			entry_prob[loop] = number(3);
+		}
+
+		int word_count = words.size();
+		double prob_1_tuple[][] = new double[syndrome_count][word_count];
+
+		for (loop = 0; loop < syndrome_count; loop++) {
+			java.util.Arrays.fill(prob_1_tuple[loop], missing_prob);
+		}
+
+		for (loop = 0; loop < prob_1_tuple_count; loop++) {
+			prob_1_tuple[entry_1_syndrome[loop]][entry_1_word[loop]] =
+				entry_1_prob[loop];
+		}
+
+		return new CoCo_model(
+			syndromes.names(),
+			java.util.Arrays.copyOf(prior, syndrome_count),
+			words.names(),
+			wordpairs,
+			prob_1_tuple,
+			new CoCo_bigram_table(
+				wordpair_count,
+				prob_2_tuple_count,
+				entry_pair,
+				entry_syndrome,
+				entry_prob),
+			weight_1_tuple,
+			weight_2_tuple,
+			threshold,
+			default_prob,
+			missing_prob);
+	}
+
+	/*
+	 *  Read a section header.
+	 */
+	private int count() throws IOException {
+		if (!next_line()) {
+			throw error("missing section count");
+		}
+
+		int start = line_start;
+		int end = line_end;
+		long count = 0;
+
+		if (start == end) {
+			throw error("missing section count");
+		}
+
+		for (int loop = start; loop < end; loop++) {
+			int digit = buffer[loop] - '0';
+
+			if (digit < 0 || digit > 9) {
+				throw error("bad section count");
+			}
+
+			if ((count = count * 10 + digit) > Integer.MAX_VALUE) {
+				throw error("bad section count");
+			}
+		}
+
+		return (int) count;
+	}
+
+	/*
+	 *  Read a record of at least 'fields' fields.  Any further fields are
+	 *  ignored, as they always were.
+	 */
+	private void record(int fields) throws IOException {
+		if (!next_line()) {
+			throw error("file ends early");
+		}
+
+		int count = 0;
+		int start = line_start;
+
+		for (int loop = line_start; loop <= line_end && count < fields; loop++) {
+			if (loop == line_end || buffer[loop] == ',') {
+				if (loop > start) {
+					field_start[count] = start;
+					field_end[count] = loop;
+					count++;
+				}
+
+				start = loop + 1;
+			}
+		}
+
+		if (count != fields) {
+			throw error("too few fields");
+		}
+	}
+
+	/*
+	 *  The syndrome in field 0, which must be one listed with the priors.
+	 */
+	private int syndrome(Symbol_table syndromes) throws IOException {
+		int syndrome =
+			syndromes.intern(buffer, field_start[0], field_end[0], false);
+
+		if (syndrome < 0) {
+			throw error("unknown syndrome");
+		}
+
+		return syndrome;
+	}
+
+	/*
+	 *  Parse a field as a double.
+	 */
+	private double number(int field) throws IOException {
+		int start = field_start[field];
+		int end = field_end[field];
+		int loop = start;
+		boolean negative = false;
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean any = false;
+
+		if (buffer[loop] == '-' || buffer[loop] == '+') {
+			negative = buffer[loop++] == '-';
+		}
+
+		for (; loop < end && is_digit(buffer[loop]); loop++) {
+			any = true;
+
+			if (mantissa != 0 || buffer[loop] != '0') {
+				mantissa = mantissa * 10 + (buffer[loop] - '0');
+				digits++;
+			}
+		}
+
+		if (loop < end && buffer[loop] == '.') {
+			for (loop++; loop < end && is_digit(buffer[loop]); loop++) {
+				any = true;
+
+				if (mantissa != 0 || buffer[loop] != '0') {
+					mantissa = mantissa * 10 + (buffer[loop] - '0');
+					digits++;
+				}
+
+				scale++;
+			}
+		}
+
+		if (loop == end && any && digits <= 18 && scale <= 22
+			&& mantissa < (1L << 53)) {
+			double value = (double) mantissa / POWER_OF_TEN[scale];
+
+			return negative ? -value : value;
+		}
+
+		try {
+			return Double.valueOf(new String(buffer, start, end - start))
+				.doubleValue();
+		} catch (NumberFormatException e) {
+			throw error("bad number");
+		}
+	}
+
+	private static boolean is_digit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	/*
+	 *  Advance to the next line, which is then buffer[line_start,
+	 *  line_end).
+	 */
+	private boolean next_line() throws IOException {
+		if (!reader.next_line()) {
+			return false;
+		}
+
+		buffer = reader.bytes();
+		line_start = reader.line_start();
+		line_end = reader.line_end();
+
+		return true;
+	}
+
+	private IOException error(String message) {
+		return new IOException(
+			prob_file_name + " line " + reader.line_number() + ": " + message);
+	}
+
+	/*
+	 *  Names interned from their bytes.  Ids are given out in order of
+	 *  first appearance; the bytes are only decoded into a String for a
+	 *  new name.
+	 */
+	private static final class Symbol_table {
+
+		private int slot_id[];
+		private long slot_hash[];
+		private String name[];
+		private byte name_bytes[] = new byte[1 << 12];
+		private int name_offset[];
+		private int size = 0;
+		private int mask;
+
+		Symbol_table(int expected) {
+			int capacity = 16;
+
+			while (capacity < expected * 2) {
+				capacity <<= 1;
+			}
+
+			allocate(capacity);
+			name = new String[Math.max(expected, 16)];
+			name_offset = new int[name.length + 1];
+		}
+
+		int size() {
+			return size;
+		}
+
+		String[] names() {
+			return java.util.Arrays.copyOf(name, size);
+		}
+
+		/*
+		 *  Id of the name bytes[start, end); if it is new, add it when
+		 *  'add' is set and return -1 otherwise.
+		 */
+		int intern(byte[] bytes, int start, int end, boolean add) {
+			long hash = CoCo_vocabulary.HASH_SEED;
+
+			for (int loop = start; loop < end; loop++) {
+				hash = CoCo_vocabulary.hash_step(hash, (char) bytes[loop]);
+			}
+
+			int slot = (int) (hash ^ (hash >>> 32)) & mask;
+			int id;
+
+			while ((id = slot_id[slot]) >= 0) {
+				if (slot_hash[slot] == hash && matches(id, bytes, start, end)) {
+					return id;
+				}
+
+				slot = (slot + 1) & mask;
+			}
+
+			if (!add) {
+				return -1;
+			}
+
+			id = size++;
+
+			if (id == name.length) {
+				name = java.util.Arrays.copyOf(name, id * 2);
+				name_offset = java.util.Arrays.copyOf(name_offset, id * 2 + 1);
+			}
+
+			int offset = name_offset[id];
+
+			while (offset + end - start > name_bytes.length) {
+				name_bytes =
+					java.util.Arrays.copyOf(name_bytes, name_bytes.length * 2);
+			}
+
+			System.arraycopy(bytes, start, name_bytes, offset, end - start);
+			name_offset[id + 1] = offset + end - start;
+			name[id] = new String(bytes, start, end - start);
+			slot_id[slot] = id;
+			slot_hash[slot] = hash;
+
+			if (size * 2 > slot_id.length) {
+				rehash();
+			}
+
+			return id;
+		}
+
+		private boolean matches(int id, byte[] bytes, int start, int end) {
+			int offset = name_offset[id];
+
+			if (name_offset[id + 1] - offset != end - start) {
+				return false;
+			}
+
+			for (int loop = start; loop < end; loop++) {
+				if (name_bytes[offset++] != bytes[loop]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		private void allocate(int capacity) {
+			slot_id = new int[capacity];
+			slot_hash = new long[capacity];
+			mask = capacity - 1;
+			java.util.Arrays.fill(slot_id, -1);
+		}
+
+		private void rehash() {
+			int old_id[] = slot_id;
+			long old_hash[] = slot_hash;
+
+			allocate(old_id.length * 2);
+
+			for (int loop = 0; loop < old_id.length; loop++) {
+				if (old_id[loop] >= 0) {
+					int slot =
+						(int) (old_hash[loop] ^ (old_hash[loop] >>> 32)) & mask;
+
+					while (slot_id[slot] >= 0) {
+						slot = (slot + 1) & mask;
+					}
+
+					slot_id[slot] = old_id[loop];
+					slot_hash[slot] = old_hash[loop];
+				}
+			}
+		}
+	}
+}
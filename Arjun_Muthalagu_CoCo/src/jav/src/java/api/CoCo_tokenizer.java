@@ -0,0 +1,141 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+/*
+ *  Single-pass tokenizer that turns a complaint string straight into
+ *  word ids.  Each character is read once: it either ends the current
+ *  word or is folded into the word's hash, and at the end of a word the
+ *  vocabulary is asked for the id of that character range.  No regular
+ *  expression, substring or token array is involved.
+ *  Two tokenizers exist:
+ *  LINE  - interactive complaints; the same breaks as the old pattern
+ *  [-\r\s\t\n/&.,/?_()+:;"']+ and words are lowercased.
+ *  BATCH - preprocessed complaint files; words are separated by
+ *  space, tab and newline only (as split_whitespace()) and
+ *  are taken as they are.
+ */
+/**
+ *  Complaint string to word id tokenizer.
+ */
+final class CoCo_tokenizer {
+
+	static final CoCo_tokenizer LINE =
+		new CoCo_tokenizer("-\r \t\n\u000b\f/&.,?_()+:;\"'", true);
+	static final CoCo_tokenizer BATCH = new CoCo_tokenizer(" \t\n", false);
+
+	private final boolean delimiter[] = new boolean[128];
+	private final boolean fold_case;
+
+	private CoCo_tokenizer(String delimiters, boolean fold_case) {
+		for (int loop = 0; loop < delimiters.length(); loop++) {
+			delimiter[delimiters.charAt(loop)] = true;
+		}
+
+		this.fold_case = fold_case;
+	}
+
+	/**
+	 *  Tokenizes a complaint.
+	 *
+	 * @param  vocabulary  vocabulary to resolve the words with
+	 * @param  c_str       the complaint
+	 * @return             the word ids, -1 for words not in the vocabulary
+	 */
+	int[] words(CoCo_vocabulary vocabulary, CharSequence c_str) {
+		int length = c_str.length();
+		int complaint_word[] = new int[(length + 1) / 2];
+		int count = 0;
+		int start = -1;
+		long hash = CoCo_vocabulary.HASH_SEED;
+
+		for (int loop = 0; loop <= length; loop++) {
+			char c = loop < length ? c_str.charAt(loop) : ' ';
+
+			if (c < 128 && delimiter[c]) {
+				if (start >= 0) {
+					complaint_word[count++] =
+						vocabulary.id(hash, c_str, start, loop, fold_case);
+					start = -1;
+					hash = CoCo_vocabulary.HASH_SEED;
+				}
+			} else {
+				if (start < 0) {
+					start = loop;
+				}
+
+				hash =
+					CoCo_vocabulary.hash_step(
+						hash,
+						fold_case ? CoCo_vocabulary.fold(c) : c);
+			}
+		}
+
+		return count == complaint_word.length
+			? complaint_word
+			: java.util.Arrays.copyOf(complaint_word, count);
+	}
+
+	/**
+	 *  Tokenizes a complaint held as ASCII bytes.
+	 *
+	 * @param  vocabulary  vocabulary to resolve the words with
+	 * @param  bytes       buffer holding the complaint
+	 * @param  start       first byte of the complaint
+	 * @param  end         one past the last byte of the complaint
+	 * @return             the word ids, -1 for words not in the vocabulary
+	 */
+	int[] words(
+		CoCo_vocabulary vocabulary,
+		java.nio.ByteBuffer bytes,
+		int start,
+		int end) {
+		int complaint_word[] = new int[(end - start + 1) / 2];
+		int count = 0;
+		int word_start = -1;
+		long hash = CoCo_vocabulary.HASH_SEED;
+
+		for (int loop = start; loop <= end; loop++) {
+			char c = loop < end ? (char) bytes.get(loop) : ' ';
+
+			if (c < 128 && delimiter[c]) {
+				if (word_start >= 0) {
+					complaint_word[count++] =
+						vocabulary.id(hash, bytes, word_start, loop, fold_case);
+					word_start = -1;
+					hash = CoCo_vocabulary.HASH_SEED;
+				}
+			} else {
+				if (word_start < 0) {
+					word_start = loop;
+				}
+
+				hash =
+					CoCo_vocabulary.hash_step(
+						hash,
+						fold_case ? CoCo_vocabulary.fold(c) : c);
+			}
+		}
+
+		return count == complaint_word.length
+			? complaint_word
+			: java.util.Arrays.copyOf(complaint_word, count);
+	}
+}
@@ -0,0 +1,592 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ *  Single-pass, sparse-count trainer.
+ *  The training file is read once.  Syndromes, words and word pairs get
+ *  their ids in order of first appearance, as the two-pass trainer gave
+ *  them, and every line adds its counts straight away:
+ *  count_train[s]            lines listing syndrome s (a line that lists
+ *  s twice counts twice)
+ *  count_1_tuple(s, w)       occurrences of word w in those lines
+ *  total_1_tuple[s]          words in those lines
+ *  count_2_tuple(s, p)       occurrences of word pair p in those lines
+ *  The (syndrome, word) and (syndrome, pair) counts are kept in
+ *  CoCo_long_int_maps keyed by CoCo_long_int_map.pair_key(s, id), so
+ *  only the n-grams that actually occur take memory; nothing is sized
+ *  syndromes x words or syndromes x pairs, and the lines themselves are
+ *  not kept.  A word pair is the packed pair of its word ids.
+ *  write() sorts the keys, which puts them in (syndrome, id) order, the
+ *  order the dense trainer wrote its non-zero entries in, and computes
+ *  every probability with the same division, so the probability file
+ *  is byte for byte the one the dense trainer wrote.
+ *  Trainers that have read consecutive parts of a training file are
+ *  combined with merge() (see CoCo_parallel_trainer).  The merged
+ *  trainer keeps its own ids and appends the other's new syndromes,
+ *  words and pairs in the other's order, which is the order a single
+ *  trainer reading both parts one after the other would have given
+ *  them, so the probability file does not depend on how the file was
+ *  cut up.  Warnings are collected rather than printed for the same
+ *  reason, and printed by the caller.
+ *  The counts are kept next to the probability file as a count
+ *  snapshot (<probability file>.counts), so newly labelled complaints
+ *  can be folded in later without reading the old training lines
+ *  again: read_counts() restores the trainer as it was, read() adds the
+ *  new lines to it and write() regenerates the probabilities, exactly
+ *  as training on the old and new lines together would.
+ *  Snapshot layout (DataOutputStream, big-endian):
+ *  header     - magic "CoCoCnts", int version, int total_train
+ *  syndromes  - int count, then for each in id order its name (int
+ *  byte count and UTF-8), count_train and total_1_tuple
+ *  words      - int count, then each name in id order
+ *  word pairs - int count, then the first and second word id of each
+ *  in id order
+ *  counts     - count_1_tuple, then count_2_tuple: int count, then the
+ *  entries in key order, each as the difference from the previous key
+ *  and the count, both as varints (7 bits a byte, low bits first, high
+ *  bit set on all but the last byte).  Keys are (syndrome, id) pairs
+ *  and most counts are small, so an entry takes a few bytes instead
+ *  of twelve.
+ */
+/**
+ *  Streaming CoCo trainer.
+ */
+final class CoCo_trainer {
+
+	private static final byte MAGIC[] = {'C', 'o', 'C', 'o', 'C', 'n', 't', 's'};
+	private static final int VERSION = 1;
+
+	private final Map<String, Integer> syndromes = new HashMap<String, Integer>();
+	private final List<String> syndrome_lookup = new ArrayList<String>();
+	private final Map<String, Integer> words = new HashMap<String, Integer>();
+	private final List<String> word_lookup = new ArrayList<String>();
+	private final CoCo_long_int_map wordpairs = new CoCo_long_int_map(1 << 10);
+	private int wordpair_first[] = new int[1 << 10];
+	private int wordpair_second[] = new int[1 << 10];
+	private int count_train[] = new int[16];
+	private int total_1_tuple[] = new int[16];
+	private final CoCo_long_int_map count_1_tuple = new CoCo_long_int_map(1 << 10);
+	private final CoCo_long_int_map count_2_tuple = new CoCo_long_int_map(1 << 10);
+	private int total_train = 0;
+	private final StringBuilder warnings = new StringBuilder();
+
+	/**
+	 *  Reads a training file and adds its counts.
+	 *
+	 * @param  train_file_name  file of complaint,syndrome[,syndrome...]
+	 *      lines
+	 * @exception  IOException  if the file can not be read
+	 */
+	void read(String train_file_name) throws IOException {
+		read(new FileInputStream(train_file_name), train_file_name);
+	}
+
+	/**
+	 *  Reads training lines from a stream and adds their counts.  The
+	 *  stream is closed.
+	 *
+	 * @param  in               training lines
+	 * @param  train_file_name  file the lines come from, for warnings
+	 * @exception  IOException  if the stream can not be read
+	 */
+	void read(InputStream in, String train_file_name) throws IOException {
+		BufferedReader train_file =
+			new BufferedReader(new InputStreamReader(in));
+
+		try {
+			String train_file_line;
+
+			while ((train_file_line = train_file.readLine()) != null) {
+				add(train_file_line, train_file_name);
+			}
+		} finally {
+			train_file.close();
+		}
+	}
+
+	/**
+	 *  Adds the counts of one training line.
+	 *
+	 * @param  train_file_line  complaint,syndrome[,syndrome...]
+	 * @param  train_file_name  file the line comes from, for warnings
+	 */
+	void add(String train_file_line, String train_file_name) {
+		String train_file_token[] = CoCo_batch.split(train_file_line, ',');
+
+		if (train_file_token.length == 0) {
+			warnings.append(
+				"WARNING: Blank line found in "
+					+ train_file_name
+					+ " (skipping)\n\n");
+
+			return;
+		} else if (train_file_token.length == 1) {
+			warnings.append(
+				"WARNING: No syndromes indicated for \""
+					+ train_file_token[0]
+					+ "\" in "
+					+ train_file_name
+					+ " (skipping)\n\n");
+
+			return;
+		}
+
+		String complaint_token[] =
+			CoCo_batch.split_whitespace(train_file_token[0]);
+		int complaint_word[] = new int[complaint_token.length];
+		int complaint_pair[] = new int[Math.max(complaint_token.length - 1, 0)];
+		int loop;
+
+		for (loop = 0; loop < complaint_token.length; loop++) {
+			complaint_word[loop] = id(words, word_lookup, complaint_token[loop]);
+		}
+
+		for (loop = 0; loop < complaint_pair.length; loop++) {
+			complaint_pair[loop] =
+				wordpair(complaint_word[loop], complaint_word[loop + 1]);
+		}
+
+		for (loop = 1; loop < train_file_token.length; loop++) {
+			int syndrome = syndrome(train_file_token[loop]);
+
+			count_train[syndrome]++;
+
+			for (int loop1 = 0; loop1 < complaint_word.length; loop1++) {
+				count_1_tuple.increment(
+					CoCo_long_int_map.pair_key(syndrome, complaint_word[loop1]));
+				total_1_tuple[syndrome]++;
+			}
+
+			for (int loop1 = 0; loop1 < complaint_pair.length; loop1++) {
+				count_2_tuple.increment(
+					CoCo_long_int_map.pair_key(syndrome, complaint_pair[loop1]));
+			}
+		}
+
+		total_train++;
+	}
+
+	/**
+	 *  Adds the counts of another trainer, which has read the lines
+	 *  that follow the ones this trainer has read.
+	 *
+	 * @param  other  the other trainer; it is not changed
+	 */
+	void merge(CoCo_trainer other) {
+		int syndrome[] = new int[other.syndrome_lookup.size()];
+		int word[] = new int[other.word_lookup.size()];
+		int wordpair[] = new int[other.wordpairs.size()];
+		long key[];
+		int loop;
+
+		for (loop = 0; loop < syndrome.length; loop++) {
+			syndrome[loop] = syndrome(other.syndrome_lookup.get(loop));
+			count_train[syndrome[loop]] += other.count_train[loop];
+			total_1_tuple[syndrome[loop]] += other.total_1_tuple[loop];
+		}
+
+		for (loop = 0; loop < word.length; loop++) {
+			word[loop] = id(words, word_lookup, other.word_lookup.get(loop));
+		}
+
+		for (loop = 0; loop < wordpair.length; loop++) {
+			wordpair[loop] =
+				wordpair(
+					word[other.wordpair_first[loop]],
+					word[other.wordpair_second[loop]]);
+		}
+
+		key = other.count_1_tuple.keys();
+
+		for (loop = 0; loop < key.length; loop++) {
+			count_1_tuple.add(
+				CoCo_long_int_map.pair_key(
+					syndrome[(int) (key[loop] >>> 32)],
+					word[(int) key[loop]]),
+				other.count_1_tuple.get(key[loop]));
+		}
+
+		key = other.count_2_tuple.keys();
+
+		for (loop = 0; loop < key.length; loop++) {
+			count_2_tuple.add(
+				CoCo_long_int_map.pair_key(
+					syndrome[(int) (key[loop] >>> 32)],
+					wordpair[(int) key[loop]]),
+				other.count_2_tuple.get(key[loop]));
+		}
+
+		total_train += other.total_train;
+		warnings.append(other.warnings);
+	}
+
+	/**
+	 *  The warnings about skipped lines, in line order.
+	 *
+	 * @return    the warnings, each followed by a blank line
+	 */
+	String warnings() {
+		return warnings.toString();
+	}
+
+	/**
+	 *  Number of training lines counted (blank and unlabelled lines are
+	 *  skipped).
+	 *
+	 * @return    the line count
+	 */
+	int total_train() {
+		return total_train;
+	}
+
+	/**
+	 *  Number of distinct syndromes.
+	 *
+	 * @return    the syndrome count
+	 */
+	int syndrome_count() {
+		return syndrome_lookup.size();
+	}
+
+	/**
+	 *  Writes the probability file.
+	 *
+	 * @param  prob_file_name   the file to write
+	 * @exception  IOException  if the file can not be written
+	 */
+	void write(String prob_file_name) throws IOException {
+		BufferedWriter prob_file =
+			new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(prob_file_name)));
+
+		try {
+			long key[];
+			int loop;
+
+			prob_file.write(syndrome_lookup.size() + "\n");
+
+			for (loop = 0; loop < syndrome_lookup.size(); loop++) {
+				prob_file.write(
+					syndrome_lookup.get(loop)
+						+ ","
+						+ ((double) count_train[loop] / (double) total_train)
+						+ "\n");
+			}
+
+			key = count_1_tuple.keys();
+			Arrays.sort(key);
+			prob_file.write(key.length + "\n");
+
+			for (loop = 0; loop < key.length; loop++) {
+				int syndrome = (int) (key[loop] >>> 32);
+
+				prob_file.write(
+					syndrome_lookup.get(syndrome)
+						+ ","
+						+ word_lookup.get((int) key[loop])
+						+ ","
+						+ ((double) count_1_tuple.get(key[loop])
+							/ (double) total_1_tuple[syndrome])
+						+ "\n");
+			}
+
+			key = count_2_tuple.keys();
+			Arrays.sort(key);
+			prob_file.write(key.length + "\n");
+
+			for (loop = 0; loop < key.length; loop++) {
+				int syndrome = (int) (key[loop] >>> 32);
+				int wordpair = (int) key[loop];
+				int first = wordpair_first[wordpair];
+
+				prob_file.write(
+					syndrome_lookup.get(syndrome)
+						+ ","
+						+ word_lookup.get(first)
+						+ ","
+						+ word_lookup.get(wordpair_second[wordpair])
+						+ ","
+						+ ((double) count_2_tuple.get(key[loop])
+							/ (double) count_1_tuple.get(
+								CoCo_long_int_map.pair_key(syndrome, first)))
+						+ "\n");
+			}
+		} finally {
+			prob_file.close();
+		}
+	}
+
+	/**
+	 *  Writes the count snapshot.  It is written to a temporary file and
+	 *  renamed into place, so an interrupted write leaves the old
+	 *  snapshot as it was.
+	 *
+	 * @param  counts_file_name  the snapshot file
+	 * @exception  IOException   if the file can not be written
+	 */
+	void write_counts(String counts_file_name) throws IOException {
+		File temp = new File(counts_file_name + ".tmp");
+		DataOutputStream out =
+			new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		int loop;
+
+		try {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(total_train);
+			out.writeInt(syndrome_lookup.size());
+
+			for (loop = 0; loop < syndrome_lookup.size(); loop++) {
+				write_name(out, syndrome_lookup.get(loop));
+				out.writeInt(count_train[loop]);
+				out.writeInt(total_1_tuple[loop]);
+			}
+
+			out.writeInt(word_lookup.size());
+
+			for (loop = 0; loop < word_lookup.size(); loop++) {
+				write_name(out, word_lookup.get(loop));
+			}
+
+			out.writeInt(wordpairs.size());
+
+			for (loop = 0; loop < wordpairs.size(); loop++) {
+				out.writeInt(wordpair_first[loop]);
+				out.writeInt(wordpair_second[loop]);
+			}
+
+			write_counts(out, count_1_tuple);
+			write_counts(out, count_2_tuple);
+		} finally {
+			out.close();
+		}
+
+		Files.move(
+			temp.toPath(),
+			Paths.get(counts_file_name),
+			StandardCopyOption.ATOMIC_MOVE,
+			StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 *  Restores a trainer from a count snapshot.
+	 *
+	 * @param  counts_file_name  the snapshot file
+	 * @return                   the trainer the snapshot was written from
+	 * @exception  IOException   if the file can not be read or is not a
+	 *      count snapshot
+	 */
+	static CoCo_trainer read_counts(String counts_file_name)
+		throws IOException {
+		CoCo_trainer trainer = new CoCo_trainer();
+		DataInputStream in =
+			new DataInputStream(
+				new BufferedInputStream(
+					new FileInputStream(counts_file_name),
+					1 << 16));
+		byte magic[] = new byte[MAGIC.length];
+		int count;
+		int loop;
+
+		try {
+			in.readFully(magic);
+
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException(counts_file_name + " is not a CoCo count snapshot");
+			}
+
+			if (in.readInt() != VERSION) {
+				throw new IOException(counts_file_name + ": unknown count snapshot version");
+			}
+
+			trainer.total_train = in.readInt();
+			count = in.readInt();
+
+			for (loop = 0; loop < count; loop++) {
+				int syndrome = trainer.syndrome(read_name(in));
+
+				trainer.count_train[syndrome] = in.readInt();
+				trainer.total_1_tuple[syndrome] = in.readInt();
+			}
+
+			count = in.readInt();
+
+			for (loop = 0; loop < count; loop++) {
+				id(trainer.words, trainer.word_lookup, read_name(in));
+			}
+
+			count = in.readInt();
+
+			for (loop = 0; loop < count; loop++) {
+				trainer.wordpair(in.readInt(), in.readInt());
+			}
+
+			read_counts(in, trainer.count_1_tuple);
+			read_counts(in, trainer.count_2_tuple);
+		} catch (EOFException e) {
+			throw new IOException(counts_file_name + ": count snapshot is truncated");
+		} finally {
+			in.close();
+		}
+
+		return trainer;
+	}
+
+	/*
+	 *  Names are written as a byte count and UTF-8 bytes, as in the
+	 *  posterior file dictionary.
+	 */
+	private static void write_name(DataOutputStream out, String name)
+		throws IOException {
+		byte bytes[] = name.getBytes(StandardCharsets.UTF_8);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String read_name(DataInputStream in) throws IOException {
+		byte bytes[] = new byte[in.readInt()];
+
+		in.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 *  An n-gram count map is written as its size and key/count entries,
+	 *  in key order so the same counts always give the same file.
+	 */
+	private static void write_counts(DataOutputStream out, CoCo_long_int_map counts)
+		throws IOException {
+		long key[] = counts.keys();
+		long previous = 0;
+
+		Arrays.sort(key);
+		out.writeInt(key.length);
+
+		for (int loop = 0; loop < key.length; loop++) {
+			write_varint(out, key[loop] - previous);
+			write_varint(out, counts.get(key[loop]));
+			previous = key[loop];
+		}
+	}
+
+	private static void read_counts(DataInputStream in, CoCo_long_int_map counts)
+		throws IOException {
+		int count = in.readInt();
+		long key = 0;
+
+		for (int loop = 0; loop < count; loop++) {
+			key += read_varint(in);
+			counts.add(key, (int) read_varint(in));
+		}
+	}
+
+	/*
+	 *  Varints: 7 bits a byte, low bits first, high bit set on all but
+	 *  the last byte.  CoCo_external_trainer writes its runs with them too.
+	 */
+	static void write_varint(DataOutputStream out, long value)
+		throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.write((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+
+		out.write((int) value);
+	}
+
+	static long read_varint(DataInputStream in) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+
+		do {
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+
+	/*
+	 *  Return the id of 'name', giving it the next id if it is new.
+	 */
+	static int id(
+		Map<String, Integer> ids,
+		List<String> lookup,
+		String name) {
+		Integer id = ids.get(name);
+
+		if (id == null) {
+			id = Integer.valueOf(lookup.size());
+			ids.put(name, id);
+			lookup.add(name);
+		}
+
+		return id.intValue();
+	}
+
+	/*
+	 *  Return the id of a syndrome, giving it the next id and room in the
+	 *  per-syndrome counts if it is new.
+	 */
+	private int syndrome(String name) {
+		int syndrome = id(syndromes, syndrome_lookup, name);
+
+		if (syndrome == count_train.length) {
+			count_train = Arrays.copyOf(count_train, syndrome * 2);
+			total_1_tuple = Arrays.copyOf(total_1_tuple, syndrome * 2);
+		}
+
+		return syndrome;
+	}
+
+	/*
+	 *  Return the id of a word pair, giving it the next id if it is new.
+	 */
+	private int wordpair(int first_word, int second_word) {
+		long key = CoCo_long_int_map.pair_key(first_word, second_word);
+		int wordpair = wordpairs.get(key);
+
+		if (wordpair < 0) {
+			wordpair = wordpairs.size();
+			wordpairs.put(key, wordpair);
+
+			if (wordpair == wordpair_first.length) {
+				wordpair_first = Arrays.copyOf(wordpair_first, wordpair * 2);
+				wordpair_second = Arrays.copyOf(wordpair_second, wordpair * 2);
+			}
+
+			wordpair_first[wordpair] = first_word;
+			wordpair_second[wordpair] = second_word;
+		}
+
+		return wordpair;
+	}
+}
@@ -0,0 +1,438 @@
+/*
+    This file is part of RODS - the Real-time Outbreak and Disease
+    Surveillance system
+
+    RODS is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    RODS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with RODS; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+*/
+package src.java.api;
+
+import java.io.*;
+import java.nio.*;
+
+/*
+ *  Word to word id lookup that works directly on a range of characters,
+ *  so the tokenizer never has to cut a String out of its input.  The
+ *  caller hashes the characters while it scans them (see hash_step())
+ *  and passes the hash along with the range.
+ *  The vocabulary is frozen once the model is loaded, so it is indexed
+ *  with a minimal perfect hash (hash and displace): every word hashes
+ *  to one of word_count buckets' worth of slots, each bucket of about
+ *  four words stores the seed that sends its words to distinct free
+ *  slots, and the table has exactly one slot per word.  A lookup is a
+ *  bucket read, one remix and a fingerprint compare, so an unknown word
+ *  is almost always rejected without touching its characters; the
+ *  characters are compared only when the fingerprint matches.
+ *  The words themselves are kept back to back in one character block.
+ *  All arrays are held as buffers so that a vocabulary read from a
+ *  compiled model file is used in place.
+ *  The vocabulary never changes after it is built, so it can be shared
+ *  between threads.
+ */
+/**
+ *  Immutable word vocabulary.
+ */
+final class CoCo_vocabulary {
+
+	/*
+	 *  64-bit FNV-1a parameters.
+	 */
+	static final long HASH_SEED = 0xcbf29ce484222325L;
+	private static final long HASH_PRIME = 0x100000001b3L;
+
+	/*
+	 *  Average number of words per bucket, and how many seeds to try for
+	 *  a bucket before giving up (only two words with the same 64-bit
+	 *  hash can exhaust it).
+	 */
+	private static final int BUCKET_SIZE = 4;
+	private static final int MAX_SEED = 1 << 24;
+
+	private final IntBuffer word_offset;
+	private final CharBuffer word_chars;
+	private final IntBuffer bucket_seed;
+	private final IntBuffer slot_fingerprint;
+	private final IntBuffer slot_word;
+	private final long build_nanos;
+
+	/**
+	 *  Builds the vocabulary.
+	 *
+	 * @param  word_lookup  the words, indexed by word id
+	 */
+	CoCo_vocabulary(String[] word_lookup) {
+		long start = System.nanoTime();
+		int word_count = word_lookup.length;
+		int bucket_count = Math.max(1, word_count / BUCKET_SIZE);
+		long word_hash[] = new long[word_count];
+		int bucket_start[] = new int[bucket_count + 1];
+		int bucket_word[] = new int[word_count];
+		int order[] = new int[bucket_count];
+		boolean taken[] = new boolean[word_count];
+		int slot[] = new int[word_count];
+		int loop;
+		int loop1;
+
+		int word_offset[] = new int[word_count + 1];
+		int bucket_seed[] = new int[bucket_count];
+		int slot_fingerprint[] = new int[word_count];
+		int slot_word[] = new int[word_count];
+		StringBuffer word_chars = new StringBuffer();
+
+		/*
+		 *  Group the words by bucket.
+		 */
+		for (loop = 0; loop < word_count; loop++) {
+			word_chars.append(word_lookup[loop]);
+			word_offset[loop + 1] = word_chars.length();
+			word_hash[loop] = mix(hash(word_lookup[loop]));
+			bucket_start[bucket(word_hash[loop], bucket_count) + 1]++;
+		}
+
+		for (loop = 0; loop < bucket_count; loop++) {
+			bucket_start[loop + 1] += bucket_start[loop];
+		}
+
+		int next[] = bucket_start.clone();
+
+		for (loop = 0; loop < word_count; loop++) {
+			bucket_word[next[bucket(word_hash[loop], bucket_count)]++] = loop;
+		}
+
+		/*
+		 *  Place the largest buckets first, while most slots are free.
+		 *  A counting sort by size, largest first and buckets of one size
+		 *  in bucket order.
+		 */
+		int sizes[] = new int[bucket_count];
+		int max_size = 0;
+
+		for (loop = 0; loop < bucket_count; loop++) {
+			sizes[loop] = bucket_start[loop + 1] - bucket_start[loop];
+			max_size = Math.max(max_size, sizes[loop]);
+		}
+
+		int size_start[] = new int[max_size + 2];
+
+		for (loop = 0; loop < bucket_count; loop++) {
+			size_start[max_size - sizes[loop] + 1]++;
+		}
+
+		for (loop = 0; loop <= max_size; loop++) {
+			size_start[loop + 1] += size_start[loop];
+		}
+
+		for (loop = 0; loop < bucket_count; loop++) {
+			order[size_start[max_size - sizes[loop]]++] = loop;
+		}
+
+		for (loop = 0; loop < bucket_count; loop++) {
+			int bucket = order[loop];
+			int first = bucket_start[bucket];
+			int size = sizes[bucket];
+			int seed = 0;
+
+			if (size == 0) {
+				break;
+			}
+
+			search : while (true) {
+				if (seed == MAX_SEED) {
+					throw new IllegalStateException(
+						"CoCo: can not build the vocabulary hash");
+				}
+
+				for (loop1 = 0; loop1 < size; loop1++) {
+					slot[loop1] =
+						slot(word_hash[bucket_word[first + loop1]], seed, word_count);
+
+					if (taken[slot[loop1]]) {
+						break;
+					}
+
+					taken[slot[loop1]] = true;
+				}
+
+				if (loop1 == size) {
+					break search;
+				}
+
+				while (--loop1 >= 0) {
+					taken[slot[loop1]] = false;
+				}
+
+				seed++;
+			}
+
+			bucket_seed[bucket] = seed;
+
+			for (loop1 = 0; loop1 < size; loop1++) {
+				int word = bucket_word[first + loop1];
+
+				slot_word[slot[loop1]] = word;
+				slot_fingerprint[slot[loop1]] = (int) word_hash[word];
+			}
+		}
+
+		this.word_offset = IntBuffer.wrap(word_offset);
+		this.word_chars = CharBuffer.wrap(word_chars.toString().toCharArray());
+		this.bucket_seed = IntBuffer.wrap(bucket_seed);
+		this.slot_fingerprint = IntBuffer.wrap(slot_fingerprint);
+		this.slot_word = IntBuffer.wrap(slot_word);
+		build_nanos = System.nanoTime() - start;
+	}
+
+	/**
+	 *  Maps a vocabulary written by write().
+	 *
+	 * @param  file  the model file
+	 */
+	CoCo_vocabulary(CoCo_model_file file) {
+		word_offset = file.read_ints();
+		word_chars = file.read_chars();
+		bucket_seed = file.read_ints();
+		slot_fingerprint = file.read_ints();
+		slot_word = file.read_ints();
+		build_nanos = 0;
+	}
+
+	/**
+	 *  Writes the vocabulary to a model file.
+	 *
+	 * @param  file             the model file
+	 * @exception  IOException  if the file can not be written
+	 */
+	void write(CoCo_model_file file) throws IOException {
+		file.write_ints(word_offset);
+		file.write_chars(word_chars);
+		file.write_ints(bucket_seed);
+		file.write_ints(slot_fingerprint);
+		file.write_ints(slot_word);
+	}
+
+	/**
+	 *  Folds one more character into a running hash.
+	 *
+	 * @param  hash  hash so far (HASH_SEED for an empty word)
+	 * @param  c     next character
+	 * @return       the new hash
+	 */
+	static long hash_step(long hash, char c) {
+		return (hash ^ c) * HASH_PRIME;
+	}
+
+	/**
+	 *  Hashes a whole word.
+	 *
+	 * @param  word  the word
+	 * @return       its hash
+	 */
+	static long hash(String word) {
+		long hash = HASH_SEED;
+
+		for (int loop = 0; loop < word.length(); loop++) {
+			hash = hash_step(hash, word.charAt(loop));
+		}
+
+		return hash;
+	}
+
+	/**
+	 *  Lowercases a character.  ASCII is handled without a table lookup.
+	 *
+	 * @param  c  the character
+	 * @return    its lowercase form
+	 */
+	static char fold(char c) {
+		if (c < 128) {
+			return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+		}
+
+		return Character.toLowerCase(c);
+	}
+
+	/**
+	 *  Number of words.
+	 *
+	 * @return    the word count
+	 */
+	int size() {
+		return slot_word.limit();
+	}
+
+	/**
+	 *  Time it took to build the perfect hash.
+	 *
+	 * @return    the build time in nanoseconds (0 if it was mapped)
+	 */
+	long build_nanos() {
+		return build_nanos;
+	}
+
+	/**
+	 *  The word with the given id.
+	 *
+	 * @param  word  word id
+	 * @return       the word
+	 */
+	String word(int word) {
+		int start = word_offset.get(word);
+
+		return word_chars
+			.subSequence(start, word_offset.get(word + 1))
+			.toString();
+	}
+
+	/**
+	 *  Looks up a whole word.
+	 *
+	 * @param  word  the word
+	 * @return       its id, or -1 if it is not in the vocabulary
+	 */
+	int id(String word) {
+		return id(hash(word), word, 0, word.length(), false);
+	}
+
+	/**
+	 *  Looks up the word formed by s[start, end).
+	 *
+	 * @param  hash       hash of the (folded) characters
+	 * @param  s          characters to look in
+	 * @param  start      first character of the word
+	 * @param  end        one past the last character of the word
+	 * @param  fold_case  whether to lowercase the characters first
+	 * @return            the word id, or -1 if it is not in the vocabulary
+	 */
+	int id(long hash, CharSequence s, int start, int end, boolean fold_case) {
+		int word_count = slot_word.limit();
+
+		if (word_count == 0) {
+			return -1;
+		}
+
+		long mixed = mix(hash);
+		int slot =
+			slot(
+				mixed,
+				bucket_seed.get(bucket(mixed, bucket_seed.limit())),
+				word_count);
+		int word = slot_word.get(slot);
+
+		if (slot_fingerprint.get(slot) != (int) mixed
+			|| !matches(word, s, start, end, fold_case)) {
+			return -1;
+		}
+
+		return word;
+	}
+
+	/**
+	 *  Looks up the word formed by the ASCII bytes [start, end).  Only
+	 *  ASCII lines come here (CoCo_mapped_batch decodes any other line to
+	 *  a String first), so each byte is its character.
+	 *
+	 * @param  hash       hash of the (folded) characters
+	 * @param  bytes      bytes to look in
+	 * @param  start      first byte of the word
+	 * @param  end        one past the last byte of the word
+	 * @param  fold_case  whether to lowercase the characters first
+	 * @return            the word id, or -1 if it is not in the vocabulary
+	 */
+	int id(long hash, ByteBuffer bytes, int start, int end, boolean fold_case) {
+		return id(hash, new Ascii_chars(bytes), start, end, fold_case);
+	}
+
+	private boolean matches(
+		int word,
+		CharSequence s,
+		int start,
+		int end,
+		boolean fold_case) {
+		int offset = word_offset.get(word);
+
+		if (word_offset.get(word + 1) - offset != end - start) {
+			return false;
+		}
+
+		for (int loop = start; loop < end; loop++) {
+			char c = s.charAt(loop);
+
+			if (word_chars.get(offset + loop - start)
+				!= (fold_case ? fold(c) : c)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 *  ASCII bytes seen as characters, so byte and character lookups share
+	 *  matches().  A byte of 0x80 or more is not ASCII; it fails the
+	 *  assertion rather than sign-extend into some other character.
+	 */
+	private static final class Ascii_chars implements CharSequence {
+
+		private final ByteBuffer bytes;
+
+		Ascii_chars(ByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+
+		public char charAt(int index) {
+			byte b = bytes.get(index);
+
+			assert b >= 0 : "non-ASCII byte " + (b & 0xff) + " at " + index;
+
+			return (char) b;
+		}
+
+		public int length() {
+			return bytes.limit();
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/*
+	 *  The bucket comes from the high half of the mixed hash, the
+	 *  fingerprint is the low half, and the slot is a remix of the hash
+	 *  with the bucket's seed.  Ranges are reduced by multiply-shift.
+	 */
+	private static int bucket(long mixed, int bucket_count) {
+		return (int) (((mixed >>> 32) * bucket_count) >>> 32);
+	}
+
+	private static int slot(long mixed, int seed, int word_count) {
+		long h = mix(mixed + seed * 0x9e3779b97f4a7c15L);
+
+		return (int) (((h >>> 32) * word_count) >>> 32);
+	}
+
+	/*
+	 *  MurmurHash3 finalizer.
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+}
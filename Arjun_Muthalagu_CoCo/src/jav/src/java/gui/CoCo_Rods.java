@@ -3,6 +3,7 @@ package src.java.gui;
 import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
+import java.util.function.BiConsumer;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -10,8 +11,9 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
 
-import src.java.api.CoCo_batch;
+import src.java.api.CoCo_async;
 
 /**
 * <p>Title: </p>
@@ -32,6 +34,7 @@ public class CoCo_Rods extends JFrame {
  JLabel jLabel3 = new JLabel();
  JButton jButton1 = new JButton();
  JTextArea Output = new JTextArea();
+ int requests = 0;
 
  public CoCo_Rods() {
    try {
@@ -90,9 +93,26 @@ public class CoCo_Rods extends JFrame {
  void jButton1_actionPerformed(ActionEvent e) {
 //
 String inputtext = Input.getText();
-CoCo_batch Compar = new CoCo_batch();
-String output = CoCo_batch.line(inputtext);
-Output.setText(output);
+final int request = ++requests;
+// classify off the event thread; only the latest answer is shown
+// a failed classification or model load is shown instead of an answer
+CoCo_async.classifyAsync(inputtext).whenComplete(new BiConsumer<String, Throwable>() {
+  public void accept(final String output, final Throwable failure) {
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        if (request != requests) {
+          return;
+        }
+        if (failure == null) {
+          Output.setText(output);
+        } else {
+          Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+          Output.setText("ERROR! " + cause);
+        }
+      }
+    });
+  }
+});
  }
 }
 
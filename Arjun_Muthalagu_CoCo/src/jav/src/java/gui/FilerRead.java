@@ -7,10 +7,10 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import src.java.api.CoCo_batch;
+import src.java.api.CoCo_model;
 
 
 public class FilerRead extends Filewrite 
@@ -23,7 +23,6 @@ public class FilerRead extends Filewrite
 	
 	FilerRead()
 	{
-		fileopen_for_reading();	
 	}
 	
 	public void fileopen_for_reading()
@@ -63,51 +62,24 @@ public class FilerRead extends Filewrite
 		if(fw.filer!=null)
 		{	
 		Set<String> prevent_duplicates = new HashSet<String>();
-		int line=0;
-		boolean first_time = true;
-		int current_delimiter,past_delimiter,duplicate_count;
+		int duplicate_count;
 		int return_array_count_new=0;
-		CoCo_batch COCO_OBJECT = new CoCo_batch();
-		ArrayList<String> current_line = new ArrayList<String>();
+		/*
+		 * The list is made of the syndromes and words of the shared model,
+		 * so the probability file is not read again here.
+		 */
+		CoCo_model model = CoCo_batch.model();
 		Pattern p =Pattern.compile("\\d+");;
-		Matcher m;
 		String no_duplicate[];
-		COCO_OBJECT = new CoCo_batch();
-	while ( (scan.hasNext()) )//&& (line<10) && (return_array_count<20))
+	for(int syndrome=0;syndrome<model.syndrome_count();syndrome++)
 	{
-	current_line.add(line, scan.next());	
-	current_delimiter = current_line.get(line).indexOf(",",0);
-	past_delimiter = -1;
-	System.out.println("the string at current_line " + line +" is "+current_line.get(line).toString());
-	while(current_delimiter!=-1)
-		{
-			if(first_time)
-				current_delimiter = current_line.get(line).indexOf(",",0); 
-			else
-				current_delimiter=current_line.get(line).indexOf(",", current_delimiter +1);
-			if(first_time)
-					{	
-						m=p.matcher(current_line.get(line).substring(0, current_delimiter));
-						if(!m.find())
-						prevent_duplicates.add(current_line.get(line).substring(0, current_delimiter));	
-						first_time = false;
-						past_delimiter = current_delimiter;
-					}
-			
-			else if(current_delimiter!= -1)
-					{   
-						m=p.matcher(current_line.get(line).substring(past_delimiter+1, current_delimiter));
-						if(!m.find())
-						prevent_duplicates.add(current_line.get(line).substring(past_delimiter+1, current_delimiter));	
-					
-						past_delimiter = current_delimiter;
-					}
-		}
-					m=p.matcher(current_line.get(line).substring(past_delimiter +1));
-					if(!m.find())
-						prevent_duplicates.add(current_line.get(line).substring(past_delimiter +1));
-		line++;
-		first_time=true;
+		if(!p.matcher(model.syndrome(syndrome)).find())
+			prevent_duplicates.add(model.syndrome(syndrome));
+	}
+	for(int word=0;word<model.word_count();word++)
+	{
+		if(!p.matcher(model.word(word)).find())
+			prevent_duplicates.add(model.word(word));
 	}
 	duplicate_count = prevent_duplicates.size();
 	System.out.println(duplicate_count);
@@ -119,7 +91,7 @@ public class FilerRead extends Filewrite
     	 for(int e=0;e<no_duplicate.length;e++)
     	 {  
 		
-		if((!COCO_OBJECT.line(no_duplicate[e]).equalsIgnoreCase("other")))
+		if((!CoCo_batch.line(no_duplicate[e]).equalsIgnoreCase("other")))
 		{
 			return_arraylistnew.add(no_duplicate[e]);
 			fw.adddata(return_arraylistnew.get(return_array_count_new).toString());
@@ -132,7 +104,8 @@ public class FilerRead extends Filewrite
 	Collections.sort(return_arraylistnew);
 	}
 	else
-	{	scan.close();
+	{	if(scan!=null)
+		scan.close();
 		String file_name=fw.close();
 		
 		try
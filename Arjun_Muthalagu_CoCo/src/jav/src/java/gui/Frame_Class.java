@@ -6,6 +6,7 @@ import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.function.BiConsumer;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -16,9 +17,11 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
+import src.java.api.CoCo_async;
 import src.java.api.CoCo_batch;
 
 @SuppressWarnings("serial")
@@ -40,6 +43,7 @@ public class Frame_Class extends JFrame
 		this.setVisible(true);
 		this.setSize(700,600);
 		COCO_OBJECT = new CoCo_batch();
+		CoCo_batch.watch();
 		
 		panel2 = new JPanel();
 		panel2.setBorder(BorderFactory.createLineBorder(Color.black));
@@ -57,7 +61,7 @@ public class Frame_Class extends JFrame
 		
 		panel3 = new JPanel(new BorderLayout());
 		panel3.setBorder(BorderFactory.createLineBorder(Color.black));
-		filepointer = new FilerRead("default_probs.txt");
+		filepointer = new FilerRead();
 		arraylist=filepointer.readdata();
 		list = new JList(arraylist.toArray());
 		//System.out.println(list.getModel().getSize());
@@ -91,11 +95,35 @@ public class Frame_Class extends JFrame
 	{
 		Font f;
 		boolean first_click=true;
+		int requests = 0;
 		public void actionPerformed(ActionEvent event)
 		{
 			            if(event.getSource()!=button)	return ;			
- 		    			String output = CoCo_batch.line(textfield.getText());
-						label1.setText("SYNDROME--->"+output);
+						/*
+						 *  Classify off the event thread; only the answer to
+						 *  the latest click is shown.
+						 */
+						final int request = ++requests;
+						CoCo_async.classifyAsync(textfield.getText()).whenComplete(new BiConsumer<String, Throwable>() {
+							public void accept(final String output, final Throwable failure) {
+								SwingUtilities.invokeLater(new Runnable() {
+									public void run() {
+										if (request != requests)
+											return;
+										if (failure == null)
+											label1.setText("SYNDROME--->"+output);
+										else {
+											/*
+											 *  The classification or the first model load
+											 *  failed; say so rather than leave the old answer.
+											 */
+											Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+											label1.setText("ERROR! "+cause);
+										}
+									}
+								});
+							}
+						});
 		}
 	}	
 	